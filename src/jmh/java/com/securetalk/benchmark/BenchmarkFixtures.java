@@ -0,0 +1,92 @@
+package com.securetalk.benchmark;
+
+import com.securetalk.model.Message;
+import com.securetalk.model.User;
+import com.securetalk.model.UserKey;
+import com.securetalk.repository.UserKeyRepository;
+import com.securetalk.util.EncryptionUtil;
+import org.mockito.Mockito;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Construction des composants mesurés en dehors du contexte Spring : les champs injectés
+ * sont renseignés par réflexion et les dépôts remplacés par des mocks en mémoire.
+ */
+final class BenchmarkFixtures {
+
+    static final Long SENDER_ID = 1L;
+    static final Long RECIPIENT_ID = 2L;
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * EncryptionUtil configuré comme en production, avec une clé par participant
+     */
+    static EncryptionUtil encryptionUtil() {
+        EncryptionUtil encryptionUtil = new EncryptionUtil();
+        ReflectionTestUtils.setField(encryptionUtil, "keySalt", "securetalksalt123456");
+        ReflectionTestUtils.setField(encryptionUtil, "keyCacheMaxSize", 100_000);
+        ReflectionTestUtils.setField(encryptionUtil, "keyCacheTtlMinutes", 5L);
+        ReflectionTestUtils.setField(encryptionUtil, "parallelDecryptThreshold", 256);
+        ReflectionTestUtils.setField(encryptionUtil, "decryptParallelism", 0);
+        ReflectionTestUtils.setField(encryptionUtil, "negativeKeyCacheTtlSeconds", 30L);
+        ReflectionTestUtils.setField(encryptionUtil, "transactionManager", Mockito.mock(PlatformTransactionManager.class));
+
+        UserKeyRepository userKeyRepository = Mockito.mock(UserKeyRepository.class);
+        for (Long userId : List.of(SENDER_ID, RECIPIENT_ID)) {
+            UserKey userKey = new UserKey(user(userId), encryptionUtil.generateKey());
+            Mockito.when(userKeyRepository.findByUserId(userId)).thenReturn(Optional.of(userKey));
+        }
+        ReflectionTestUtils.setField(encryptionUtil, "userKeyRepository", userKeyRepository);
+        ReflectionTestUtils.invokeMethod(encryptionUtil, "init");
+        return encryptionUtil;
+    }
+
+    static void shutdown(EncryptionUtil encryptionUtil) {
+        ReflectionTestUtils.invokeMethod(encryptionUtil, "shutdownDecryptPool");
+    }
+
+    static User user(Long id) {
+        User user = new User();
+        user.setId(id);
+        user.setUsername("user" + id);
+        user.setEmail("user" + id + "@securetalk.local");
+        return user;
+    }
+
+    /**
+     * Contenu textuel de la taille demandée (ASCII, donc autant d'octets que de caractères)
+     */
+    static String content(int size) {
+        StringBuilder builder = new StringBuilder(size);
+        for (int i = 0; i < size; i++) {
+            builder.append((char) ('a' + i % 26));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Conversation chiffrée au format de stockage actuel, en alternant l'expéditeur
+     */
+    static List<Message> conversation(EncryptionUtil encryptionUtil, int count, int contentSize) {
+        User sender = user(SENDER_ID);
+        User recipient = user(RECIPIENT_ID);
+        String content = content(contentSize);
+
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            User from = i % 2 == 0 ? sender : recipient;
+            User to = i % 2 == 0 ? recipient : sender;
+            Message message = new Message(from, to, encryptionUtil.encryptMessagePayload(content, from.getId(), to.getId()));
+            message.setId((long) i + 1);
+            messages.add(message);
+        }
+        return messages;
+    }
+}
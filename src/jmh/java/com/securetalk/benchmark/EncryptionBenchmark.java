@@ -0,0 +1,89 @@
+package com.securetalk.benchmark;
+
+import com.securetalk.model.Message;
+import com.securetalk.model.User;
+import com.securetalk.util.EncryptionUtil;
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.SecretKey;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chemins de chiffrement AES-GCM, des messages courts (50 B) aux pièces jointes textuelles (64 KB).
+ * Le nombre de threads se règle avec -Djmh.threads pour mesurer la contention sur les caches.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class EncryptionBenchmark {
+
+    @Param({"50", "1024", "16384", "65536"})
+    private int size;
+
+    private EncryptionUtil encryptionUtil;
+    private String content;
+    private String key;
+    private SecretKey secretKey;
+    private String iv;
+    private String encrypted;
+    private Message packedMessage;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        encryptionUtil = BenchmarkFixtures.encryptionUtil();
+        content = BenchmarkFixtures.content(size);
+        key = encryptionUtil.generateKey();
+        secretKey = encryptionUtil.toSecretKey(key);
+        iv = encryptionUtil.generateIv();
+        encrypted = encryptionUtil.encrypt(content, key, iv);
+
+        User sender = BenchmarkFixtures.user(BenchmarkFixtures.SENDER_ID);
+        User recipient = BenchmarkFixtures.user(BenchmarkFixtures.RECIPIENT_ID);
+        packedMessage = new Message(sender, recipient,
+                encryptionUtil.encryptMessagePayload(content, sender.getId(), recipient.getId()));
+        packedMessage.setId(1L);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkFixtures.shutdown(encryptionUtil);
+    }
+
+    @Benchmark
+    public String encrypt() {
+        // Un IV neuf par opération, comme en production
+        return encryptionUtil.encrypt(content, secretKey, encryptionUtil.generateIv());
+    }
+
+    @Benchmark
+    public String encryptWithKeyString() {
+        return encryptionUtil.encrypt(content, key, encryptionUtil.generateIv());
+    }
+
+    @Benchmark
+    public String decrypt() {
+        return encryptionUtil.decrypt(encrypted, secretKey, iv);
+    }
+
+    @Benchmark
+    public String[] encryptMessageForBoth() {
+        return encryptionUtil.encryptMessageForBoth(content, BenchmarkFixtures.SENDER_ID, BenchmarkFixtures.RECIPIENT_ID);
+    }
+
+    @Benchmark
+    public byte[] encryptMessagePayload() {
+        return encryptionUtil.encryptMessagePayload(content, BenchmarkFixtures.SENDER_ID, BenchmarkFixtures.RECIPIENT_ID);
+    }
+
+    @Benchmark
+    public String decryptMessageForUser() {
+        return encryptionUtil.decryptMessageForUser(packedMessage, BenchmarkFixtures.RECIPIENT_ID);
+    }
+
+    @Benchmark
+    public String generateIv() {
+        return encryptionUtil.generateIv();
+    }
+}
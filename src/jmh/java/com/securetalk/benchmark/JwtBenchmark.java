@@ -0,0 +1,53 @@
+package com.securetalk.benchmark;
+
+import com.securetalk.security.jwt.JwtUtils;
+import com.securetalk.security.services.UserDetailsImpl;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validation d'un token JWT, exécutée par AuthTokenFilter à chaque requête authentifiée
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class JwtBenchmark {
+
+    private JwtUtils jwtUtils;
+    private String token;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        jwtUtils = new JwtUtils();
+        ReflectionTestUtils.setField(jwtUtils, "jwtSecret", "benchmarkSecretKeyWithAtLeast256BitsForHmacSha256Signing");
+        ReflectionTestUtils.setField(jwtUtils, "jwtExpirationMs", 86_400_000);
+        jwtUtils.init();
+
+        UserDetailsImpl principal = new UserDetailsImpl(BenchmarkFixtures.SENDER_ID, "user1", "user1@securetalk.local",
+                "password", List.of(new SimpleGrantedAuthority("ROLE_USER")));
+        token = jwtUtils.generateJwtToken(
+                new UsernamePasswordAuthenticationToken(principal, null, principal.getAuthorities()));
+    }
+
+    @Benchmark
+    public boolean validateJwtToken() {
+        return jwtUtils.validateJwtToken(token);
+    }
+
+    @Benchmark
+    public String getUserNameFromJwtToken() {
+        return jwtUtils.getUserNameFromJwtToken(token);
+    }
+
+    @Benchmark
+    public UserDetailsImpl parseUserDetails() {
+        return jwtUtils.getUserDetailsFromClaims(jwtUtils.parseClaims(token));
+    }
+}
@@ -0,0 +1,73 @@
+package com.securetalk.benchmark;
+
+import com.securetalk.controller.MessageController;
+import com.securetalk.model.Message;
+import com.securetalk.payload.dto.MessageDto;
+import com.securetalk.service.MessageService;
+import com.securetalk.util.EncryptionUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversion d'une conversation en DTO telle que la réalise MessageController :
+ * déchiffrement message par message, ou en un seul appel groupé.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class MessageConversionBenchmark {
+
+    @Param({"50", "1024", "16384", "65536"})
+    private int size;
+
+    @Param({"50"})
+    private int conversationLength;
+
+    private EncryptionUtil encryptionUtil;
+    private MessageService messageService;
+    private MessageController messageController;
+    private MethodHandle convertToDto;
+    private List<Message> conversation;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ReflectiveOperationException {
+        encryptionUtil = BenchmarkFixtures.encryptionUtil();
+        messageService = new MessageService();
+        ReflectionTestUtils.setField(messageService, "encryptionUtil", encryptionUtil);
+        messageController = new MessageController();
+        ReflectionTestUtils.setField(messageController, "messageService", messageService);
+
+        // convertToDto est privée : on passe par un MethodHandle pour ne pas mesurer la réflexion
+        convertToDto = MethodHandles.privateLookupIn(MessageController.class, MethodHandles.lookup())
+                .findVirtual(MessageController.class, "convertToDto",
+                        MethodType.methodType(MessageDto.class, Message.class, Long.class));
+
+        conversation = BenchmarkFixtures.conversation(encryptionUtil, conversationLength, size);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkFixtures.shutdown(encryptionUtil);
+    }
+
+    @Benchmark
+    public void convertConversation(Blackhole blackhole) throws Throwable {
+        for (Message message : conversation) {
+            blackhole.consume((MessageDto) convertToDto.invokeExact(messageController, message, BenchmarkFixtures.RECIPIENT_ID));
+        }
+    }
+
+    @Benchmark
+    public List<String> decryptConversationBatch() {
+        return messageService.decryptMessagesForUser(conversation, BenchmarkFixtures.RECIPIENT_ID);
+    }
+}
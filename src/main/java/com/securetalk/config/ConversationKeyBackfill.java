@@ -0,0 +1,63 @@
+package com.securetalk.config;
+
+import com.securetalk.repository.MessageRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Renseigne au démarrage la clé de conversation des messages enregistrés avant l'ajout de cette colonne.
+ *
+ * Les conversations sont lues uniquement par leur clé : les anciens messages doivent donc être
+ * complétés avant de servir des requêtes. La mise à jour se fait directement en base, par plages
+ * d'IDs et dans une transaction par plage, sans charger les messages. Une fois toutes les lignes
+ * renseignées, le démarrage ne coûte plus qu'une lecture de l'index de conversation.
+ */
+@Component
+@Order(3)
+public class ConversationKeyBackfill implements CommandLineRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConversationKeyBackfill.class);
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Value("${messages.conversation-key.backfill-batch-size:10000}")
+    private int batchSize;
+
+    private final TransactionTemplate transactionTemplate;
+
+    public ConversationKeyBackfill(PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Override
+    public void run(String... args) {
+        if (!messageRepository.existsByConversationKeyIsNull()) {
+            return;
+        }
+        // Les messages à compléter ont tous des IDs IDENTITY, bien inférieurs aux IDs ordonnés dans le temps
+        Long maxId = messageRepository.findMaxIdWithoutConversationKey();
+
+        long start = System.currentTimeMillis();
+        long updated = 0;
+        for (long fromId = 0; fromId < maxId; fromId += batchSize) {
+            long toId = Math.min(fromId + batchSize, maxId);
+            long rangeStart = fromId;
+            Integer count = transactionTemplate.execute(status ->
+                    messageRepository.backfillConversationKeys(rangeStart, toId));
+            updated += count != null ? count : 0;
+        }
+
+        if (updated > 0) {
+            logger.info("Clé de conversation renseignée pour {} messages en {} ms",
+                    updated, System.currentTimeMillis() - start);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.securetalk.config;
+
+import com.securetalk.repository.ConversationSummaryRepository;
+import com.securetalk.repository.MessageRepository;
+import com.securetalk.service.ConversationSummaryService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Construit les résumés de conversation au premier démarrage après l'ajout de la table,
+ * à partir des messages existants. Les démarrages suivants ne font que deux comptages.
+ */
+@Component
+@Order(4)
+public class ConversationSummaryInitializer implements CommandLineRunner {
+
+    @Autowired
+    private ConversationSummaryRepository summaryRepository;
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Autowired
+    private ConversationSummaryService conversationSummaryService;
+
+    @Override
+    public void run(String... args) {
+        if (summaryRepository.count() == 0 && messageRepository.count() > 0) {
+            conversationSummaryService.rebuild();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.securetalk.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.util.StringUtils;
+
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sources de données : la primaire (spring.datasource) et, si des URLs de répliques sont configurées,
+ * un routage des transactions en lecture seule vers ces répliques (voir {@link ReplicaRoutingDataSource}).
+ * Sans réplique, la primaire est utilisée directement.
+ */
+@Configuration
+public class DataSourceConfig {
+
+    @Value("${securetalk.datasource.replica.urls:}")
+    private List<String> replicaUrls;
+
+    @Value("${securetalk.datasource.replica.username:${spring.datasource.username:}}")
+    private String replicaUsername;
+
+    @Value("${securetalk.datasource.replica.password:${spring.datasource.password:}}")
+    private String replicaPassword;
+
+    @Value("${securetalk.datasource.replica.pool-size:10}")
+    private int replicaPoolSize;
+
+    @Value("${securetalk.datasource.replica.max-lag-ms:1000}")
+    private long maxLagMs;
+
+    @Value("${securetalk.datasource.replica.heartbeat-interval-ms:500}")
+    private long heartbeatIntervalMs;
+
+    @Value("${securetalk.datasource.replica.read-your-writes-ms:5000}")
+    private long readYourWritesMs;
+
+    @Value("${securetalk.datasource.replica.max-tracked-writers:100000}")
+    private int maxTrackedWriters;
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean
+    @ConditionalOnExpression("!'${securetalk.datasource.replica.urls:}'.trim().isEmpty()")
+    public ReplicaRoutingDataSource replicaRoutingDataSource(HikariDataSource primaryDataSource,
+                                                             DataSourceProperties properties) {
+        List<String> urls = replicaUrls.stream().filter(StringUtils::hasText).map(String::trim).toList();
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        for (int i = 0; i < urls.size(); i++) {
+            HikariDataSource replica = new HikariDataSource();
+            replica.setPoolName("replica-" + i);
+            replica.setJdbcUrl(urls.get(i));
+            replica.setUsername(replicaUsername);
+            replica.setPassword(replicaPassword);
+            replica.setDriverClassName(properties.determineDriverClassName());
+            replica.setMaximumPoolSize(replicaPoolSize);
+            replica.setReadOnly(true);
+            replicas.put("replica-" + i, replica);
+        }
+        return new ReplicaRoutingDataSource(primaryDataSource, replicas,
+                maxLagMs, heartbeatIntervalMs, readYourWritesMs, maxTrackedWriters);
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(HikariDataSource primaryDataSource,
+                                 ObjectProvider<ReplicaRoutingDataSource> replicaRoutingDataSource) {
+        ReplicaRoutingDataSource routing = replicaRoutingDataSource.getIfAvailable();
+        if (routing == null) {
+            return primaryDataSource;
+        }
+        // Connexion obtenue à la première requête, une fois le caractère readOnly de la transaction connu
+        return new LazyConnectionDataSourceProxy(routing);
+    }
+}
@@ -1,63 +1,137 @@
 package com.securetalk.config;
 
-import com.securetalk.model.User;
-import com.securetalk.model.UserKey;
-import com.securetalk.repository.UserKeyRepository;
 import com.securetalk.repository.UserRepository;
 import com.securetalk.util.EncryptionUtil;
+import com.securetalk.util.IdGenerator;
+import com.securetalk.util.UserKeyChangedEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.annotation.Order;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
 import java.util.List;
 
 /**
  * Composant qui s'exécute au démarrage de l'application pour initialiser les clés de chiffrement
  * pour tous les utilisateurs qui n'en ont pas encore.
+ *
+ * Les utilisateurs sans clé sont obtenus par lots avec une seule requête (anti-jointure), les clés
+ * sont générées en parallèle puis insérées en lot JDBC. En mode "lazy", aucun parcours n'est fait
+ * au démarrage : EncryptionUtil crée la clé d'un utilisateur à sa première utilisation.
  */
 @Component
+@Order(2)
 public class EncryptionKeyInitializer implements CommandLineRunner {
 
     private static final Logger logger = LoggerFactory.getLogger(EncryptionKeyInitializer.class);
 
+    private static final String INSERT_USER_KEY =
+            "INSERT INTO user_keys (id, user_id, encryption_key, created_at, is_active) VALUES (?, ?, ?, ?, ?)";
+
     @Autowired
     private UserRepository userRepository;
 
     @Autowired
-    private UserKeyRepository userKeyRepository;
+    private EncryptionUtil encryptionUtil;
 
     @Autowired
-    private EncryptionUtil encryptionUtil;
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private IdGenerator idGenerator;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    // "eager" : génère les clés manquantes au démarrage ; "lazy" : à la première utilisation
+    @Value("${security.encryption.key-init.mode:eager}")
+    private String mode;
+
+    @Value("${security.encryption.key-init.batch-size:1000}")
+    private int batchSize;
+
+    private final TransactionTemplate transactionTemplate;
+
+    public EncryptionKeyInitializer(PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
 
     @Override
     public void run(String... args) {
+        if ("lazy".equalsIgnoreCase(mode)) {
+            logger.info("Initialisation des clés de chiffrement différée : les clés seront créées à la première utilisation");
+            return;
+        }
+
         logger.info("Initialisation des clés de chiffrement pour les utilisateurs...");
-        
-        // Récupérer tous les utilisateurs
-        List<User> users = userRepository.findAll();
-        logger.info("Nombre d'utilisateurs trouvés : {}", users.size());
-        
-        for (User user : users) {
-            // Vérifier si l'utilisateur a déjà une clé
-            if (userKeyRepository.findByUserId(user.getId()).isEmpty()) {
-                logger.info("Génération d'une clé de chiffrement pour l'utilisateur {} (ID: {})", 
-                           user.getUsername(), user.getId());
-                
-                // Générer une nouvelle clé
-                String newKey = encryptionUtil.generateKey();
-                
-                // Créer et sauvegarder l'entité UserKey
-                UserKey userKey = new UserKey(user, newKey);
-                userKeyRepository.save(userKey);
-                
-                logger.info("Clé de chiffrement générée avec succès pour l'utilisateur {}", user.getUsername());
-            } else {
-                logger.debug("L'utilisateur {} possède déjà une clé de chiffrement", user.getUsername());
+        long start = System.currentTimeMillis();
+        long lastUserId = 0;
+        int generated = 0;
+        int skipped = 0;
+
+        List<Long> userIds;
+        do {
+            userIds = userRepository.findIdsWithoutKey(lastUserId, PageRequest.of(0, batchSize));
+            if (userIds.isEmpty()) {
+                break;
             }
-        }
-        
-        logger.info("Initialisation des clés de chiffrement terminée");
+            lastUserId = userIds.get(userIds.size() - 1);
+
+            // La génération des clés est indépendante d'un utilisateur à l'autre
+            List<String> keys = userIds.parallelStream()
+                    .map(userId -> encryptionUtil.generateKey())
+                    .toList();
+
+            try {
+                insertKeys(userIds, keys);
+                generated += userIds.size();
+                logger.debug("Lot de {} clés de chiffrement créé (dernier utilisateur: {})", userIds.size(), lastUserId);
+            } catch (DataIntegrityViolationException e) {
+                // Une autre instance a créé certaines de ces clés : elles seront relues à la première utilisation
+                skipped += userIds.size();
+                logger.warn("Lot de clés ignoré (jusqu'à l'utilisateur {}), clés créées en parallèle: {}",
+                        lastUserId, e.getMessage());
+            }
+        } while (userIds.size() == batchSize);
+
+        logger.info("Initialisation des clés de chiffrement terminée: {} clés créées, {} ignorées en {} ms",
+                generated, skipped, System.currentTimeMillis() - start);
+    }
+
+    private void insertKeys(List<Long> userIds, List<String> keys) {
+        Timestamp createdAt = Timestamp.valueOf(LocalDateTime.now());
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.batchUpdate(INSERT_USER_KEY, new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    ps.setLong(1, idGenerator.nextId());
+                    ps.setLong(2, userIds.get(i));
+                    ps.setString(3, keys.get(i));
+                    ps.setTimestamp(4, createdAt);
+                    ps.setBoolean(5, true);
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return userIds.size();
+                }
+            });
+            // Les caches de clés ne sont invalidés qu'une fois le lot validé
+            userIds.forEach(userId -> eventPublisher.publishEvent(new UserKeyChangedEvent(userId)));
+        });
     }
 }
@@ -0,0 +1,241 @@
+package com.securetalk.config;
+
+import com.securetalk.security.services.UserDetailsImpl;
+import com.securetalk.util.BoundedCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Source de données qui envoie les transactions en lecture seule vers les répliques MySQL.
+ *
+ * La clé de routage est lue à la première requête de la transaction (la source est enveloppée dans un
+ * LazyConnectionDataSourceProxy), quand l'indicateur readOnly de la transaction est déjà positionné.
+ * Les répliques éligibles sont utilisées à tour de rôle ; la primaire sert :
+ * <ul>
+ *   <li>toute transaction en écriture ou hors transaction ;</li>
+ *   <li>les lectures d'un utilisateur dont une transaction vient de valider des modifications signalées
+ *   par {@link #recordWrite()}, pendant la fenêtre read-your-writes ;</li>
+ *   <li>les lectures quand aucune réplique n'est dans la tolérance de retard.</li>
+ * </ul>
+ *
+ * Le retard est mesuré par battement de cœur : la primaire met à jour l'horodatage d'une ligne de
+ * replication_heartbeat, relu sur chaque réplique. Une réplique injoignable ou en retard de plus de
+ * max-lag-ms (plus un intervalle de battement) est écartée jusqu'à la mesure suivante.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+
+    static final String PRIMARY = "primary";
+
+    private static final String CREATE_HEARTBEAT =
+            "CREATE TABLE IF NOT EXISTS replication_heartbeat (id INT PRIMARY KEY, beat_at BIGINT NOT NULL)";
+
+    private final JdbcTemplate primaryJdbcTemplate;
+    private final List<String> replicaKeys;
+    private final Map<String, DataSource> replicaDataSources;
+    private final Map<String, JdbcTemplate> replicaJdbcTemplates = new HashMap<>();
+    private final long maxLagMs;
+    private final long heartbeatIntervalMs;
+
+    // Répliques utilisables, remplacé en bloc à chaque mesure
+    private volatile List<String> eligibleReplicas;
+    private final Map<String, Long> replicaLags = new HashMap<>();
+    private final AtomicInteger nextReplica = new AtomicInteger();
+
+    // Utilisateurs ayant validé des modifications dans la fenêtre read-your-writes
+    private final BoundedCache<Long, Boolean> recentWriters;
+
+    private final AtomicLong primaryReads = new AtomicLong();
+    private final AtomicLong pinnedReads = new AtomicLong();
+    private final AtomicLong replicaReads = new AtomicLong();
+
+    private ScheduledExecutorService heartbeatExecutor;
+
+    public ReplicaRoutingDataSource(DataSource primary, Map<String, DataSource> replicas, long maxLagMs,
+                                    long heartbeatIntervalMs, long readYourWritesMs, int maxTrackedWriters) {
+        Map<Object, Object> targets = new HashMap<>(replicas);
+        targets.put(PRIMARY, primary);
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+
+        this.primaryJdbcTemplate = new JdbcTemplate(primary);
+        this.replicaKeys = List.copyOf(replicas.keySet());
+        this.replicaDataSources = replicas;
+        replicas.forEach((key, dataSource) -> replicaJdbcTemplates.put(key, new JdbcTemplate(dataSource)));
+        this.maxLagMs = maxLagMs;
+        this.heartbeatIntervalMs = heartbeatIntervalMs;
+        this.recentWriters = new BoundedCache<>(maxTrackedWriters, Duration.ofMillis(readYourWritesMs));
+        // Sans contrôle du retard, toutes les répliques sont utilisables
+        this.eligibleReplicas = maxLagMs > 0 ? List.of() : replicaKeys;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        super.afterPropertiesSet();
+        if (maxLagMs <= 0) {
+            logger.info("Routage des lectures vers {} réplique(s), sans contrôle du retard", replicaKeys.size());
+            return;
+        }
+        primaryJdbcTemplate.execute(CREATE_HEARTBEAT);
+        heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replica-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeatExecutor.scheduleWithFixedDelay(this::heartbeat, 0, heartbeatIntervalMs, TimeUnit.MILLISECONDS);
+        logger.info("Routage des lectures vers {} réplique(s), retard toléré: {} ms", replicaKeys.size(), maxLagMs);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            return PRIMARY;
+        }
+
+        Long userId = currentUserId();
+        if (userId != null && recentWriters.get(userId) != null) {
+            pinnedReads.incrementAndGet();
+            return PRIMARY;
+        }
+
+        List<String> replicas = eligibleReplicas;
+        if (replicas.isEmpty()) {
+            primaryReads.incrementAndGet();
+            return PRIMARY;
+        }
+        replicaReads.incrementAndGet();
+        return replicas.get(Math.floorMod(nextReplica.getAndIncrement(), replicas.size()));
+    }
+
+    /**
+     * Signale que la transaction en cours a modifié des données de l'utilisateur authentifié : ses lectures
+     * seront servies par la primaire pendant la fenêtre read-your-writes, à partir de la validation. Une
+     * transaction en écriture qui ne modifie rien, ou qui est annulée, n'épingle pas l'utilisateur.
+     * Sans effet hors transaction ou sans utilisateur authentifié.
+     */
+    public void recordWrite() {
+        Long userId = currentUserId();
+        if (userId == null || !TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            if (synchronization instanceof WriterPin pin && pin.userId.equals(userId)) {
+                return;
+            }
+        }
+        TransactionSynchronizationManager.registerSynchronization(new WriterPin(userId));
+    }
+
+    private final class WriterPin implements TransactionSynchronization {
+        private final Long userId;
+
+        private WriterPin(Long userId) {
+            this.userId = userId;
+        }
+
+        @Override
+        public void afterCommit() {
+            recentWriters.put(userId, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Compteurs de routage des lectures et retard mesuré de chaque réplique (ms, -1 si injoignable)
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("replicaReads", replicaReads.get());
+        stats.put("primaryReads", primaryReads.get());
+        stats.put("readYourWritesReads", pinnedReads.get());
+        stats.put("eligibleReplicas", eligibleReplicas);
+        synchronized (replicaLags) {
+            stats.put("replicaLagMs", new LinkedHashMap<>(replicaLags));
+        }
+        return stats;
+    }
+
+    @Override
+    public void destroy() {
+        if (heartbeatExecutor != null) {
+            heartbeatExecutor.shutdownNow();
+        }
+        // Les pools des répliques ne sont pas des beans : les fermer avec le routage
+        for (DataSource replica : replicaDataSources.values()) {
+            if (replica instanceof AutoCloseable closeable) {
+                try {
+                    closeable.close();
+                } catch (Exception e) {
+                    logger.warn("Fermeture d'une source de données de réplique impossible: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void heartbeat() {
+        try {
+            long now = System.currentTimeMillis();
+            if (primaryJdbcTemplate.update("UPDATE replication_heartbeat SET beat_at = ? WHERE id = 1", now) == 0) {
+                primaryJdbcTemplate.update("INSERT INTO replication_heartbeat (id, beat_at) VALUES (1, ?)", now);
+            }
+        } catch (Exception e) {
+            logger.warn("Battement de cœur sur la primaire impossible: {}", e.getMessage());
+        }
+
+        // Un battement peut avoir jusqu'à un intervalle d'âge sans que la réplique soit en retard
+        long tolerance = maxLagMs + heartbeatIntervalMs;
+        List<String> eligible = new ArrayList<>(replicaKeys.size());
+        for (String key : replicaKeys) {
+            long lag = measureLag(key);
+            synchronized (replicaLags) {
+                replicaLags.put(key, lag);
+            }
+            if (lag >= 0 && lag <= tolerance) {
+                eligible.add(key);
+            }
+        }
+        if (eligible.size() != eligibleReplicas.size()) {
+            logger.info("Répliques utilisables pour les lectures: {}/{}", eligible.size(), replicaKeys.size());
+        }
+        eligibleReplicas = List.copyOf(eligible);
+    }
+
+    private long measureLag(String key) {
+        try {
+            Long beatAt = replicaJdbcTemplates.get(key).queryForObject(
+                    "SELECT beat_at FROM replication_heartbeat WHERE id = 1", Long.class);
+            return beatAt != null ? Math.max(0, System.currentTimeMillis() - beatAt) : -1;
+        } catch (Exception e) {
+            logger.debug("Mesure du retard de la réplique {} impossible: {}", key, e.getMessage());
+            return -1;
+        }
+    }
+
+    private static Long currentUserId() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.getPrincipal() instanceof UserDetailsImpl userDetails) {
+            return userDetails.getId();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,45 @@
+package com.securetalk.config;
+
+import com.securetalk.service.SendRateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Applique la limitation des envois aux trames STOMP SEND reçues des clients. Une trame refusée
+ * lève une exception que le gestionnaire STOMP renvoie au client sous forme de trame ERROR.
+ */
+@Component
+public class StompSendRateLimitInterceptor implements ChannelInterceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(StompSendRateLimitInterceptor.class);
+
+    @Autowired
+    private SendRateLimiter sendRateLimiter;
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null || accessor.getCommand() != StompCommand.SEND) {
+            return message;
+        }
+        String key = accessor.getUser() != null
+                ? "user:" + accessor.getUser().getName()
+                : "session:" + accessor.getSessionId();
+        long waitMillis = sendRateLimiter.tryAcquireStomp(key);
+        if (waitMillis > 0) {
+            logger.debug("Trame SEND refusée pour {} ({} ms avant le prochain envoi)", key, waitMillis);
+            throw new MessageDeliveryException(message,
+                    "Trop de messages envoyés, réessayez dans " + waitMillis + " ms");
+        }
+        return message;
+    }
+}
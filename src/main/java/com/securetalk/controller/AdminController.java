@@ -0,0 +1,164 @@
+package com.securetalk.controller;
+
+import com.securetalk.config.ReplicaRoutingDataSource;
+import com.securetalk.security.jwt.RevokedTokenRegistry;
+import com.securetalk.security.services.AuthenticationExecutor;
+import com.securetalk.security.services.UserDetailsServiceImpl;
+import com.securetalk.service.ConversationSummaryService;
+import com.securetalk.service.MessageArchiver;
+import com.securetalk.service.MessageStorageMigrator;
+import com.securetalk.service.MessageWriteBehind;
+import com.securetalk.service.SendRateLimiter;
+import com.securetalk.service.ShardRebalancer;
+import com.securetalk.service.UnreadCounterService;
+import com.securetalk.util.BoundedCache;
+import com.securetalk.util.EncryptionUtil;
+import com.securetalk.util.TokenBucketLimiter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@CrossOrigin(origins = "*", maxAge = 3600)
+@RestController
+@RequestMapping("/api/admin")
+public class AdminController {
+    @Autowired
+    private EncryptionUtil encryptionUtil;
+
+    @Autowired
+    private ConversationSummaryService conversationSummaryService;
+
+    @Autowired
+    private UnreadCounterService unreadCounterService;
+
+    @Autowired
+    private UserDetailsServiceImpl userDetailsService;
+
+    @Autowired
+    private AuthenticationExecutor authenticationExecutor;
+
+    @Autowired
+    private RevokedTokenRegistry revokedTokenRegistry;
+
+    @Autowired
+    private SendRateLimiter sendRateLimiter;
+
+    @Autowired(required = false)
+    private MessageStorageMigrator messageStorageMigrator;
+
+    @Autowired(required = false)
+    private MessageWriteBehind messageWriteBehind;
+
+    @Autowired(required = false)
+    private ReplicaRoutingDataSource replicaRoutingDataSource;
+
+    @Autowired(required = false)
+    private ShardRebalancer shardRebalancer;
+
+    @Autowired(required = false)
+    private MessageArchiver messageArchiver;
+
+    /**
+     * Statistiques d'exécution des caches et composants internes
+     */
+    @GetMapping("/stats")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Object>> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("keyCache", cacheStats(encryptionUtil.getKeyCacheStats()));
+        stats.put("unavailableKeyCache", cacheStats(encryptionUtil.getUnavailableKeyCacheStats()));
+        stats.put("unreadCounters", cacheStats(unreadCounterService.getStats()));
+        stats.put("userDetailsCache", cacheStats(userDetailsService.getCacheStats()));
+        stats.put("login", authenticationExecutor.getStats());
+        stats.put("revokedTokens", revokedTokenRegistry.getStats());
+        Map<String, Object> sendRateLimit = new LinkedHashMap<>();
+        sendRateLimit.put("users", limiterStats(sendRateLimiter.getUserStats()));
+        sendRateLimit.put("stomp", limiterStats(sendRateLimiter.getStompStats()));
+        stats.put("sendRateLimit", sendRateLimit);
+        if (messageStorageMigrator != null) {
+            Map<String, Object> migration = new LinkedHashMap<>();
+            migration.put("migrated", messageStorageMigrator.getMigratedCount());
+            migration.put("failed", messageStorageMigrator.getFailedCount());
+            migration.put("completed", messageStorageMigrator.isCompleted());
+            stats.put("storageMigration", migration);
+        }
+        if (messageWriteBehind != null) {
+            Map<String, Object> writeBehind = new LinkedHashMap<>();
+            writeBehind.put("queued", messageWriteBehind.getQueuedCount());
+            writeBehind.put("written", messageWriteBehind.getWrittenCount());
+            writeBehind.put("batches", messageWriteBehind.getBatchCount());
+            writeBehind.put("rejected", messageWriteBehind.getRejectedCount());
+            writeBehind.put("dropped", messageWriteBehind.getDroppedCount());
+            stats.put("writeBehind", writeBehind);
+        }
+        if (replicaRoutingDataSource != null) {
+            stats.put("readReplicas", replicaRoutingDataSource.getStats());
+        }
+        if (messageArchiver != null) {
+            Map<String, Object> archive = new LinkedHashMap<>();
+            archive.put("archived", messageArchiver.getArchivedCount());
+            archive.put("skipped", messageArchiver.getSkippedCount());
+            archive.put("reads", messageArchiver.getArchiveReads());
+            archive.put("mappedConversations", cacheStats(messageArchiver.getMappedConversationStats()));
+            stats.put("archive", archive);
+        }
+        return ResponseEntity.ok(stats);
+    }
+
+    /**
+     * Reconstruit les résumés de conversation à partir des messages
+     */
+    @PostMapping("/conversation-summaries/rebuild")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Object>> rebuildConversationSummaries() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("summaries", conversationSummaryService.rebuild());
+        return ResponseEntity.ok(result);
+    }
+
+    /**
+     * Déplace les conversations vers la base de répartition qui leur est attribuée
+     */
+    @PostMapping("/shards/rebalance")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Object>> rebalanceShards() {
+        if (shardRebalancer == null) {
+            return ResponseEntity.notFound().build();
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        try {
+            ShardRebalancer.RebalanceResult rebalance = shardRebalancer.rebalance();
+            result.put("conversations", rebalance.conversations());
+            result.put("messages", rebalance.messages());
+            return ResponseEntity.ok(result);
+        } catch (IllegalStateException e) {
+            result.put("error", e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(result);
+        }
+    }
+
+    private Map<String, Object> cacheStats(BoundedCache.CacheStats cacheStats) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", cacheStats.size());
+        stats.put("hits", cacheStats.hits());
+        stats.put("misses", cacheStats.misses());
+        stats.put("hitRate", cacheStats.hitRate());
+        stats.put("evictions", cacheStats.evictions());
+        stats.put("expirations", cacheStats.expirations());
+        return stats;
+    }
+
+    private Map<String, Object> limiterStats(TokenBucketLimiter.Stats limiterStats) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", limiterStats.size());
+        stats.put("allowed", limiterStats.allowed());
+        stats.put("rejected", limiterStats.rejected());
+        stats.put("evicted", limiterStats.evicted());
+        return stats;
+    }
+}
@@ -10,21 +10,32 @@ import com.securetalk.payload.response.MessageResponse;
 import com.securetalk.repository.RoleRepository;
 import com.securetalk.repository.UserRepository;
 import com.securetalk.security.jwt.JwtUtils;
+import com.securetalk.security.jwt.RevokedTokenRegistry;
+import com.securetalk.security.services.AuthenticationExecutor;
+import com.securetalk.security.services.UserAccountChangedEvent;
 import com.securetalk.security.services.UserDetailsImpl;
+import io.jsonwebtoken.Claims;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.authentication.AuthenticationManager;
-import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
 
 import java.time.LocalDateTime;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
 
 @CrossOrigin(origins = "*", maxAge = 3600)
@@ -32,7 +43,7 @@ import java.util.stream.Collectors;
 @RequestMapping("/api/auth")
 public class AuthController {
     @Autowired
-    AuthenticationManager authenticationManager;
+    AuthenticationExecutor authenticationExecutor;
 
     @Autowired
     UserRepository userRepository;
@@ -46,12 +57,51 @@ public class AuthController {
     @Autowired
     JwtUtils jwtUtils;
 
+    @Autowired
+    RevokedTokenRegistry revokedTokenRegistry;
+
+    @Autowired
+    ApplicationEventPublisher eventPublisher;
+
+    /**
+     * Connexion : la vérification du mot de passe s'exécute sur le pool d'authentification, la requête
+     * est traitée de façon asynchrone sans occuper de thread Tomcat pendant le hachage
+     */
     @PostMapping("/signin")
-    public ResponseEntity<?> authenticateUser(@Valid @RequestBody LoginRequest loginRequest) {
-        Authentication authentication = authenticationManager.authenticate(
-                new UsernamePasswordAuthenticationToken(loginRequest.getUsername(), loginRequest.getPassword()));
+    public CompletableFuture<ResponseEntity<?>> authenticateUser(@Valid @RequestBody LoginRequest loginRequest,
+                                                                 HttpServletRequest request) {
+        CompletableFuture<Authentication> verification;
+        try {
+            verification = authenticationExecutor.authenticate(
+                    loginRequest.getUsername(), loginRequest.getPassword(), request.getRemoteAddr());
+        } catch (AuthenticationExecutor.LoginThrottledException e) {
+            System.out.println("Connexion refusée pour " + request.getRemoteAddr() + ": " + e.getMessage());
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, "1")
+                    .body(new MessageResponse(e.getMessage())));
+        } catch (RejectedExecutionException e) {
+            System.out.println("Connexion refusée, file d'authentification pleine");
+            return CompletableFuture.completedFuture(serviceUnavailable(e));
+        }
+
+        return verification.handle((authentication, failure) -> {
+            if (failure != null) {
+                Throwable cause = failure instanceof CompletionException ? failure.getCause() : failure;
+                if (cause instanceof RejectedExecutionException) {
+                    // Demande restée trop longtemps en file d'attente
+                    return serviceUnavailable((RejectedExecutionException) cause);
+                }
+                if (cause instanceof AuthenticationException) {
+                    return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                            .body(new MessageResponse("Error: Unauthorized"));
+                }
+                throw failure instanceof CompletionException ? (CompletionException) failure : new CompletionException(failure);
+            }
+            return signedIn(authentication);
+        });
+    }
 
-        SecurityContextHolder.getContext().setAuthentication(authentication);
+    private ResponseEntity<?> signedIn(Authentication authentication) {
         String jwt = jwtUtils.generateJwtToken(authentication);
         
         UserDetailsImpl userDetails = (UserDetailsImpl) authentication.getPrincipal();
@@ -72,6 +122,12 @@ public class AuthController {
                 roles));
     }
 
+    private ResponseEntity<?> serviceUnavailable(RejectedExecutionException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(new MessageResponse(e.getMessage()));
+    }
+
     @PostMapping("/signup")
     public ResponseEntity<?> registerUser(@Valid @RequestBody SignupRequest signUpRequest) {
         if (userRepository.existsByUsername(signUpRequest.getUsername())) {
@@ -117,17 +173,28 @@ public class AuthController {
         user.setRoles(roles);
         user.setLastSeen(LocalDateTime.now());
         userRepository.save(user);
+        // Retirer du cache d'authentification une entrée éventuelle pour ce nom ou cet email
+        eventPublisher.publishEvent(new UserAccountChangedEvent(user.getId(), user.getUsername(),
+                user.getEmail(), UserAccountChangedEvent.Change.CREATED));
 
         return ResponseEntity.ok(new MessageResponse("Utilisateur enregistré avec succès!"));
     }
     
     @PostMapping("/signout")
-    public ResponseEntity<?> logoutUser() {
+    public ResponseEntity<?> logoutUser(HttpServletRequest request) {
         // Récupérer l'utilisateur connecté
         Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
         if (authentication != null && authentication.getPrincipal() instanceof UserDetailsImpl) {
             UserDetailsImpl userDetails = (UserDetailsImpl) authentication.getPrincipal();
             
+            // Révoquer le token présenté : il est refusé jusqu'à son expiration
+            String headerAuth = request.getHeader("Authorization");
+            Claims claims = StringUtils.hasText(headerAuth) && headerAuth.startsWith("Bearer ")
+                    ? jwtUtils.parseClaims(headerAuth.substring(7)) : null;
+            if (claims != null) {
+                revokedTokenRegistry.revoke(claims.getId(), claims.getExpiration());
+            }
+            
             // Mettre à jour le statut de l'utilisateur
             User user = userRepository.findById(userDetails.getId()).orElseThrow();
             user.setOnline(false);
@@ -1,24 +1,35 @@
 package com.securetalk.controller;
 
+import com.securetalk.model.ConversationSummary;
 import com.securetalk.model.Message;
-import com.securetalk.model.MessageStatus;
 import com.securetalk.model.User;
 import com.securetalk.payload.dto.ConversationDto;
 import com.securetalk.payload.dto.MessageDto;
+import com.securetalk.payload.dto.ReadReceiptDto;
 import com.securetalk.payload.dto.UserInfoDto;
 import com.securetalk.payload.request.SendMessageRequest;
 import com.securetalk.payload.response.MessageResponse;
+import com.securetalk.repository.MessageView;
 import com.securetalk.security.services.UserDetailsImpl;
 import com.securetalk.service.MessageService;
+import com.securetalk.service.SendRateLimiter;
+import com.securetalk.service.UnreadCounterService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.LocalDateTime;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 @CrossOrigin(origins = "*", maxAge = 3600)
 @RestController
@@ -32,7 +43,7 @@ public class MessageController {
         UserDetailsImpl currentUser = getCurrentUser();
         System.out.println("Marquage de la conversation " + conversationId + " comme lue par l'utilisateur " + currentUser.getId());
         try {
-            messageService.markConversationAsRead(conversationId, currentUser.getId());
+            sendReadReceipt(messageService.markConversationAsRead(conversationId, currentUser.getId()));
             return ResponseEntity.ok(new MessageResponse("Conversation marquée comme lue"));
         } catch (Exception e) {
             System.out.println("Erreur lors du marquage de la conversation comme lue: " + e.getMessage());
@@ -46,6 +57,12 @@ public class MessageController {
     @Autowired
     private MessageService messageService;
     
+    @Autowired
+    private UnreadCounterService unreadCounterService;
+
+    @Autowired
+    private SendRateLimiter sendRateLimiter;
+    
     @PostMapping
     @PreAuthorize("hasRole('USER')")
     public ResponseEntity<?> sendMessage(@RequestBody SendMessageRequest request) {
@@ -58,6 +75,15 @@ public class MessageController {
         System.out.println("- Contenu: " + (request.getContent() != null ? "[présent]" : "[null]"));
         System.out.println("- Type de message: " + request.getMessageType());
         
+        long waitMillis = sendRateLimiter.tryAcquire(currentUser.getId());
+        if (waitMillis > 0) {
+            // Débit d'envoi dépassé : le client doit attendre le prochain jeton
+            System.out.println("Envoi refusé, débit dépassé pour l'utilisateur " + currentUser.getId());
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf((waitMillis + 999) / 1000))
+                    .body(new MessageResponse("Trop de messages envoyés, réessayez dans quelques instants"));
+        }
+        
         try {
             // Validation des données requises
             if (request.getRecipientId() == null) {
@@ -91,6 +117,12 @@ public class MessageController {
             webSocketMessageController.sendToUser(request.getRecipientId(), recipientDto);
 
             return ResponseEntity.ok(messageDto);
+        } catch (RejectedExecutionException e) {
+            // File d'écriture différée pleine : le client doit réessayer plus tard
+            System.out.println("Envoi refusé, file d'écriture pleine");
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "1")
+                    .body(new MessageResponse(e.getMessage()));
         } catch (Exception e) {
             System.out.println("Erreur lors de l'envoi du message: " + e.getMessage());
             e.printStackTrace();
@@ -98,9 +130,18 @@ public class MessageController {
         }
     }
     
+    /**
+     * Récupère une page de la conversation, dans l'ordre chronologique.
+     * Sans curseur, renvoie les derniers messages ; {@code before} remonte l'historique à partir
+     * d'un message, {@code after} récupère les messages arrivés après un message.
+     * L'en-tête X-Has-More indique s'il reste des messages dans le sens parcouru.
+     */
     @GetMapping("/conversation/{userId}")
     @PreAuthorize("hasRole('USER')")
-    public ResponseEntity<?> getConversation(@PathVariable Long userId) {
+    public ResponseEntity<?> getConversation(@PathVariable Long userId,
+                                             @RequestParam(required = false) Long before,
+                                             @RequestParam(required = false) Long after,
+                                             @RequestParam(required = false) Integer limit) {
         UserDetailsImpl currentUser = getCurrentUser();
         System.out.println("Récupération des messages de la conversation entre l'utilisateur " + 
                           currentUser.getUsername() + " (ID: " + currentUser.getId() + 
@@ -121,34 +162,29 @@ public class MessageController {
                 return ResponseEntity.badRequest().body(new MessageResponse(errorMsg));
             }
             
-            List<Message> messages = messageService.getConversation(currentUser.getId(), userId);
+            // Afficher les derniers messages ou les nouveaux messages vaut lecture de la conversation ;
+            // la remontée de l'historique ne porte que sur des messages plus anciens, déjà traités.
+            // Le marquage n'ouvre une transaction en écriture que s'il reste des messages non lus :
+            // une conversation déjà lue, cas courant des rafraîchissements, reste servie par les répliques
+            if (before == null && messageService.hasUnreadFrom(currentUser.getId(), userId)) {
+                sendReadReceipt(messageService.markConversationAsRead(userId, currentUser.getId()));
+            }
+            
+            MessageService.MessagePage page = messageService.getConversationPage(currentUser.getId(), userId, before, after, limit);
+            List<MessageView> messages = page.messages();
             System.out.println("Nombre de messages trouvés dans la conversation: " + messages.size());
             
-            List<MessageDto> messageDtos = messages.stream()
-                .map(message -> {
-                    try {
-                        return convertToDto(message, currentUser.getId());
-                    } catch (Exception e) {
-                        System.out.println("Erreur lors de la conversion du message ID " + 
-                                         message.getId() + ": " + e.getMessage());
-                        e.printStackTrace();
-                        // Retourner un message d'erreur au lieu de null
-                        MessageDto errorDto = new MessageDto();
-                        errorDto.setId(message.getId());
-                        errorDto.setSenderId(message.getSender().getId());
-                        errorDto.setRecipientId(message.getRecipient().getId());
-                        errorDto.setContent("[Erreur de déchiffrement]");
-                        errorDto.setTimestamp(message.getTimestamp());
-                        errorDto.setStatus(message.getStatus().toString());
-                        errorDto.setMessageType("text");
-                        errorDto.setOwnMessage(message.getSender().getId().equals(currentUser.getId()));
-                        return errorDto;
-                    }
-                })
+            // Déchiffrement groupé : une seule résolution de clé pour toute la conversation
+            List<String> contents = messageService.decryptMessageViewsForUser(messages, currentUser.getId());
+            
+            List<MessageDto> messageDtos = IntStream.range(0, messages.size())
+                .mapToObj(i -> convertToDto(messages.get(i), currentUser.getId(), contents.get(i)))
                 .collect(Collectors.toList());
             
             System.out.println("Nombre de messages DTO après conversion: " + messageDtos.size());
-            return ResponseEntity.ok(messageDtos);
+            return ResponseEntity.ok()
+                    .header("X-Has-More", String.valueOf(page.hasMore()))
+                    .body(messageDtos);
         } catch (Exception e) {
             System.out.println("Erreur lors de la récupération des messages: " + e.getMessage());
             e.printStackTrace();
@@ -164,59 +200,28 @@ public class MessageController {
                           currentUser.getUsername() + " (ID: " + currentUser.getId() + ")");
         
         try {
-            List<User> conversationPartners = messageService.getUserConversations(currentUser.getId());
-            System.out.println("Nombre de partenaires de conversation trouvés: " + conversationPartners.size());
+            List<ConversationSummary> summaries = messageService.getConversationSummaries(currentUser.getId());
+            System.out.println("Nombre de conversations trouvées: " + summaries.size());
             
-            List<ConversationDto> conversations = conversationPartners.stream()
-                    .map(partner -> {
-                        System.out.println("Traitement de la conversation avec: " + 
-                                         partner.getUsername() + " (ID: " + partner.getId() + ")");
-                        
+            // Derniers messages chargés en une requête et déchiffrés en un seul lot
+            List<Message> lastMessages = messageService.getLastMessages(summaries);
+            List<String> contents = messageService.decryptMessagesForUser(lastMessages, currentUser.getId());
+            Map<Long, MessageDto> lastMessageDtos = new HashMap<>();
+            for (int i = 0; i < lastMessages.size(); i++) {
+                Message message = lastMessages.get(i);
+                lastMessageDtos.put(message.getId(), convertToDto(message, currentUser.getId(), contents.get(i)));
+            }
+            
+            List<ConversationDto> conversations = summaries.stream()
+                    .map(summary -> {
+                        User partner = summary.getPartner();
                         ConversationDto conversation = new ConversationDto();
                         conversation.setId(partner.getId());
                         conversation.setParticipant(new UserInfoDto(partner));
-                        
-                        try {
-                            List<Message> messages = messageService.getConversation(currentUser.getId(), partner.getId());
-                            System.out.println("Nombre de messages dans la conversation: " + messages.size());
-                            
-                            if (!messages.isEmpty()) {
-                                Message lastMessage = messages.get(messages.size() - 1);
-                                
-                                try {
-                                    MessageDto lastMessageDto = convertToDto(lastMessage, currentUser.getId());
-                                    conversation.setLastMessage(lastMessageDto);
-                                    conversation.setLastActivity(lastMessage.getTimestamp());
-                                    
-                                    // Compter les messages non lus
-                                    long unreadCount = messages.stream()
-                                            .filter(m -> m.getRecipient().getId().equals(currentUser.getId()) && 
-                                                       m.getStatus() != MessageStatus.READ)
-                                            .count();
-                                    conversation.setUnreadCount((int) unreadCount);
-                                    
-                                } catch (Exception e) {
-                                    System.out.println("Erreur lors de la conversion du dernier message: " + e.getMessage());
-                                    e.printStackTrace();
-                                    // Initialiser avec des valeurs par défaut
-                                    conversation.setUnreadCount(0);
-                                    conversation.setLastActivity(lastMessage.getTimestamp());
-                                }
-                            } else {
-                                System.out.println("Aucun message dans cette conversation");
-                                // Initialiser avec des valeurs par défaut pour éviter les NullPointerException
-                                conversation.setUnreadCount(0);
-                                conversation.setLastActivity(partner.getCreatedAt());
-                            }
-                            
-                        } catch (Exception e) {
-                            System.out.println("Erreur lors de la récupération des messages pour la conversation avec " + 
-                                             partner.getUsername() + ": " + e.getMessage());
-                            // Initialiser avec des valeurs par défaut
-                            conversation.setUnreadCount(0);
-                            conversation.setLastActivity(partner.getCreatedAt());
-                        }
-                        
+                        conversation.setLastMessage(lastMessageDtos.get(summary.getLastMessageId()));
+                        conversation.setLastActivity(summary.getLastActivity() != null
+                                ? summary.getLastActivity() : partner.getCreatedAt());
+                        conversation.setUnreadCount(summary.getUnreadCount());
                         return conversation;
                     })
                     .collect(Collectors.toList());
@@ -240,8 +245,7 @@ public class MessageController {
         System.out.println("Marquage du message " + messageId + " comme lu par l'utilisateur " + currentUser.getId());
         
         try {
-            // Cette fonctionnalité pourrait être ajoutée au MessageService
-            // messageService.markAsRead(messageId, currentUser.getId());
+            sendReadReceipt(messageService.markMessageAsRead(messageId, currentUser.getId()));
             return ResponseEntity.ok(new MessageResponse("Message marqué comme lu"));
         } catch (Exception e) {
             System.out.println("Erreur lors du marquage du message comme lu: " + e.getMessage());
@@ -258,9 +262,7 @@ public class MessageController {
         UserDetailsImpl currentUser = getCurrentUser();
         
         try {
-            // Cette fonctionnalité pourrait être ajoutée au MessageService
-            // int unreadCount = messageService.getUnreadCount(currentUser.getId());
-            int unreadCount = 0; // Placeholder
+            int unreadCount = unreadCounterService.getUnreadCount(currentUser.getId());
             return ResponseEntity.ok(unreadCount);
         } catch (Exception e) {
             System.out.println("Erreur lors de la récupération du nombre de messages non lus: " + e.getMessage());
@@ -268,6 +270,22 @@ public class MessageController {
         }
     }
     
+    /**
+     * Transmet un accusé de lecture à l'expéditeur des messages lus
+     */
+    private void sendReadReceipt(MessageService.ReadUpdate readUpdate) {
+        if (readUpdate == null) {
+            return;
+        }
+        try {
+            webSocketMessageController.sendReadReceipt(readUpdate.partnerId(), new ReadReceiptDto(
+                    readUpdate.readerId(), readUpdate.lastReadMessageId(), readUpdate.count(), LocalDateTime.now()));
+        } catch (Exception e) {
+            // La lecture est enregistrée même si l'expéditeur n'est pas joignable
+            System.out.println("Erreur lors de l'envoi de l'accusé de lecture: " + e.getMessage());
+        }
+    }
+    
     /**
      * Récupère l'utilisateur actuellement connecté
      */
@@ -281,14 +299,20 @@ public class MessageController {
      * Utilise maintenant le nouveau système de double chiffrement
      */
     private MessageDto convertToDto(Message message, Long currentUserId) {
+        // Avec le nouveau système, chaque utilisateur peut déchiffrer le message
+        // qu'il soit expéditeur ou destinataire
+        String decryptedContent = messageService.safeDecryptMessage(message, currentUserId);
+        return convertToDto(message, currentUserId, decryptedContent);
+    }
+    
+    /**
+     * Convertit un Message dont le contenu a déjà été déchiffré en MessageDto
+     */
+    private MessageDto convertToDto(Message message, Long currentUserId, String decryptedContent) {
         MessageDto dto = new MessageDto();
         dto.setId(message.getId());
         dto.setSenderId(message.getSender().getId());
         dto.setRecipientId(message.getRecipient().getId());
-
-        // Avec le nouveau système, chaque utilisateur peut déchiffrer le message
-        // qu'il soit expéditeur ou destinataire
-        String decryptedContent = messageService.safeDecryptMessage(message, currentUserId);
         dto.setContent(decryptedContent);
 
         dto.setTimestamp(message.getTimestamp());
@@ -298,4 +322,22 @@ public class MessageController {
         
         return dto;
     }
-}
\ No newline at end of file
+    
+    /**
+     * Convertit une projection de message dont le contenu a déjà été déchiffré en MessageDto
+     */
+    private MessageDto convertToDto(MessageView message, Long currentUserId, String decryptedContent) {
+        MessageDto dto = new MessageDto();
+        dto.setId(message.getId());
+        dto.setSenderId(message.getSenderId());
+        dto.setRecipientId(message.getRecipientId());
+        dto.setContent(decryptedContent);
+
+        dto.setTimestamp(message.getTimestamp());
+        dto.setStatus(message.getStatus().toString());
+        dto.setMessageType("text");
+        dto.setOwnMessage(message.getSenderId().equals(currentUserId));
+        
+        return dto;
+    }
+}
@@ -1,6 +1,7 @@
 package com.securetalk.controller;
 
 import com.securetalk.payload.dto.MessageDto;
+import com.securetalk.payload.dto.ReadReceiptDto;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
@@ -15,4 +16,9 @@ public class WebSocketMessageController {
     public void sendToUser(Long userId, MessageDto messageDto) {
         messagingTemplate.convertAndSendToUser(userId.toString(), "/queue/messages", messageDto);
     }
+
+    // Utilisé pour informer l'expéditeur que ses messages ont été lus
+    public void sendReadReceipt(Long userId, ReadReceiptDto readReceiptDto) {
+        messagingTemplate.convertAndSendToUser(userId.toString(), "/queue/read-receipts", readReceiptDto);
+    }
 }
@@ -0,0 +1,54 @@
+package com.securetalk.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Résumé d'une conversation vu par l'un de ses participants (une ligne par participant),
+ * maintenu à chaque envoi et lecture de message pour construire la liste des conversations
+ * sans parcourir les historiques.
+ */
+@Data
+@NoArgsConstructor
+@Entity
+@Table(name = "conversation_summary",
+       uniqueConstraints = @UniqueConstraint(name = "uk_conversation_summary_owner_partner", columnNames = {"owner_id", "partner_id"}),
+       indexes = @Index(name = "idx_conversation_summary_owner_activity", columnList = "owner_id, last_activity"))
+public class ConversationSummary {
+    @Id
+    @TimeOrderedId
+    private Long id;
+
+    // Participant pour lequel ce résumé est tenu
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "owner_id", nullable = false)
+    private User owner;
+
+    // Autre participant de la conversation
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "partner_id", nullable = false)
+    private User partner;
+
+    @Column(nullable = false, length = 41)
+    private String conversationKey;
+
+    // ID du dernier message, sans clé étrangère pour ne pas contraindre l'archivage des messages
+    @Column
+    private Long lastMessageId;
+
+    @Column
+    private LocalDateTime lastActivity;
+
+    // Messages reçus par le propriétaire et pas encore lus
+    @Column(nullable = false)
+    private int unreadCount = 0;
+
+    public ConversationSummary(User owner, User partner) {
+        this.owner = owner;
+        this.partner = partner;
+        this.conversationKey = Message.conversationKey(owner.getId(), partner.getId());
+    }
+}
@@ -0,0 +1,25 @@
+package com.securetalk.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Dernière invalidation des revendications des tokens d'un utilisateur (mot de passe ou rôles
+ * modifiés), partagée par toutes les instances tant que des tokens antérieurs peuvent être valides.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "jwt_invalidations",
+       indexes = @Index(name = "idx_jwt_invalidations_invalidated_at", columnList = "invalidated_at"))
+public class JwtInvalidation {
+    @Id
+    private Long userId;
+
+    // Instant de l'invalidation (ms depuis l'époque) : les tokens émis avant sont complétés par la base
+    @Column(nullable = false)
+    private long invalidatedAt;
+}
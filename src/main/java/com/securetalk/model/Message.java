@@ -11,10 +11,21 @@ import java.time.LocalDateTime;
 @NoArgsConstructor
 @AllArgsConstructor
 @Entity
-@Table(name = "messages")
+@Table(name = "messages", indexes = {
+    // Lecture d'une conversation par plage d'index, triée par (timestamp, id)
+    @Index(name = "idx_messages_conversation", columnList = "conversation_key, timestamp, id")
+})
 public class Message {
+    // Double chiffrement historique : le contenu complet est chiffré pour chaque participant
+    public static final int FORMAT_DOUBLE_ENCRYPTION = 1;
+    // Format binaire empaqueté : version, clés de données chiffrées, IV et corps chiffré dans une seule colonne
+    public static final int FORMAT_PACKED = 3;
+
+    // Taille maximale des données empaquetées (MEDIUMBLOB sous MySQL)
+    public static final int MAX_PAYLOAD_LENGTH = 16_777_215;
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @TimeOrderedId
     private Long id;
 
     @ManyToOne(fetch = FetchType.LAZY)
@@ -25,6 +36,10 @@ public class Message {
     @JoinColumn(name = "recipient_id", nullable = false)
     private User recipient;
 
+    // Identifiant canonique de la conversation : "petitId_grandId", identique dans les deux sens
+    @Column(length = 41)
+    private String conversationKey;
+
     // Contenu chiffré avec la clé du destinataire
     @Column(nullable = false, columnDefinition = "TEXT")
     private String encryptedContentRecipient;
@@ -47,6 +62,14 @@ public class Message {
     @Enumerated(EnumType.STRING)
     private MessageStatus status = MessageStatus.SENT;
 
+    // Version du format de chiffrement (null pour les lignes antérieures à ce champ = format 1)
+    @Column
+    private Integer formatVersion = FORMAT_DOUBLE_ENCRYPTION;
+
+    // Données chiffrées du format 3, stockées en binaire
+    @Column(length = MAX_PAYLOAD_LENGTH)
+    private byte[] payload;
+
     // Constructeur avec les champs obligatoires
     public Message(User sender, User recipient, String encryptedContentRecipient, String ivRecipient, 
                    String encryptedContentSender, String ivSender) {
@@ -56,9 +79,56 @@ public class Message {
         this.ivRecipient = ivRecipient;
         this.encryptedContentSender = encryptedContentSender;
         this.ivSender = ivSender;
+        this.conversationKey = conversationKey(sender.getId(), recipient.getId());
         this.timestamp = LocalDateTime.now();
     }
 
+    // Constructeur pour un message au format binaire empaqueté (format 3)
+    public Message(User sender, User recipient, byte[] payload) {
+        this.sender = sender;
+        this.recipient = recipient;
+        this.payload = payload;
+        this.formatVersion = FORMAT_PACKED;
+        this.conversationKey = conversationKey(sender.getId(), recipient.getId());
+        this.timestamp = LocalDateTime.now();
+        clearLegacyContent();
+    }
+
+    /**
+     * Identifiant canonique de la conversation entre deux utilisateurs, indépendant du sens
+     */
+    public static String conversationKey(Long userId1, Long userId2) {
+        return Math.min(userId1, userId2) + "_" + Math.max(userId1, userId2);
+    }
+
+    @PrePersist
+    void assignConversationKey() {
+        if (conversationKey == null && sender != null && recipient != null) {
+            conversationKey = conversationKey(sender.getId(), recipient.getId());
+        }
+    }
+
+    /**
+     * Remplace le contenu chiffré par des données au format binaire empaqueté
+     */
+    public void convertToPackedFormat(byte[] payload) {
+        this.payload = payload;
+        this.formatVersion = FORMAT_PACKED;
+        clearLegacyContent();
+    }
+
+    // Les colonnes du format 1 restent NOT NULL dans les schémas existants : on les laisse vides
+    private void clearLegacyContent() {
+        this.encryptedContentRecipient = "";
+        this.ivRecipient = "";
+        this.encryptedContentSender = "";
+        this.ivSender = "";
+    }
+
+    public int getEffectiveFormatVersion() {
+        return formatVersion != null ? formatVersion : FORMAT_DOUBLE_ENCRYPTION;
+    }
+
     // Méthodes utilitaires pour récupérer le bon contenu chiffré selon l'utilisateur
     public String getEncryptedContentForUser(Long userId) {
         if (sender.getId().equals(userId)) {
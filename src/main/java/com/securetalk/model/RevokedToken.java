@@ -0,0 +1,31 @@
+package com.securetalk.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Token révoqué à la déconnexion, partagé par toutes les instances jusqu'à l'expiration du token.
+ * Les instances relisent les révocations récentes (revoked_at) pour compléter leur registre en mémoire.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "revoked_tokens",
+       indexes = @Index(name = "idx_revoked_tokens_revoked_at", columnList = "revoked_at"))
+public class RevokedToken {
+    // Identifiant (jti) du token
+    @Id
+    @Column(length = 64)
+    private String jti;
+
+    // Expiration du token (ms depuis l'époque) : la ligne est supprimée au-delà
+    @Column(nullable = false)
+    private long expiresAt;
+
+    // Instant de la révocation (ms depuis l'époque)
+    @Column(nullable = false)
+    private long revokedAt;
+}
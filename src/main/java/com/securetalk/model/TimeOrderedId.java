@@ -0,0 +1,30 @@
+package com.securetalk.model;
+
+import com.securetalk.util.IdGenerator;
+import org.hibernate.annotations.IdGeneratorType;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentifierGenerator;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Identifiant attribué par l'application avec {@link IdGenerator}, croissant et ordonné dans le temps.
+ *
+ * L'identifiant est connu avant l'insertion : Hibernate peut regrouper les INSERT en lots JDBC,
+ * ce qu'une colonne IDENTITY interdit puisque chaque ligne doit être insérée pour obtenir son ID.
+ */
+@IdGeneratorType(TimeOrderedId.Generator.class)
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD, ElementType.METHOD})
+public @interface TimeOrderedId {
+
+    class Generator implements IdentifierGenerator {
+        @Override
+        public Object generate(SharedSessionContractImplementor session, Object object) {
+            return IdGenerator.current().nextId();
+        }
+    }
+}
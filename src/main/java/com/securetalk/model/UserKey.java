@@ -14,7 +14,7 @@ import java.time.LocalDateTime;
 @Table(name = "user_keys")
 public class UserKey {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @TimeOrderedId
     private Long id;
 
     @OneToOne(fetch = FetchType.LAZY)
@@ -0,0 +1,67 @@
+package com.securetalk.payload.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * Accusé de lecture envoyé à l'expéditeur : tous ses messages de la conversation
+ * jusqu'à lastReadMessageId inclus ont été lus
+ */
+public class ReadReceiptDto {
+    // ID de la conversation vue par l'expéditeur, c'est-à-dire l'ID du lecteur
+    private Long conversationId;
+    private Long readerId;
+    private Long lastReadMessageId;
+    private int count;
+    private LocalDateTime readAt;
+
+    public ReadReceiptDto() {
+    }
+
+    public ReadReceiptDto(Long readerId, Long lastReadMessageId, int count, LocalDateTime readAt) {
+        this.conversationId = readerId;
+        this.readerId = readerId;
+        this.lastReadMessageId = lastReadMessageId;
+        this.count = count;
+        this.readAt = readAt;
+    }
+
+    public Long getConversationId() {
+        return conversationId;
+    }
+
+    public void setConversationId(Long conversationId) {
+        this.conversationId = conversationId;
+    }
+
+    public Long getReaderId() {
+        return readerId;
+    }
+
+    public void setReaderId(Long readerId) {
+        this.readerId = readerId;
+    }
+
+    public Long getLastReadMessageId() {
+        return lastReadMessageId;
+    }
+
+    public void setLastReadMessageId(Long lastReadMessageId) {
+        this.lastReadMessageId = lastReadMessageId;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+
+    public LocalDateTime getReadAt() {
+        return readAt;
+    }
+
+    public void setReadAt(LocalDateTime readAt) {
+        this.readAt = readAt;
+    }
+}
@@ -0,0 +1,64 @@
+package com.securetalk.repository;
+
+import com.securetalk.model.ConversationSummary;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface ConversationSummaryRepository extends JpaRepository<ConversationSummary, Long> {
+    
+    /**
+     * Conversations d'un utilisateur, de la plus récemment active à la plus ancienne
+     */
+    @Query("SELECT s FROM ConversationSummary s JOIN FETCH s.partner WHERE s.owner.id = :ownerId ORDER BY s.lastActivity DESC")
+    List<ConversationSummary> findByOwnerIdOrderByLastActivityDesc(@Param("ownerId") Long ownerId);
+    
+    @Query("SELECT s.unreadCount FROM ConversationSummary s WHERE s.owner.id = :ownerId AND s.partner.id = :partnerId")
+    Optional<Integer> findUnreadCount(@Param("ownerId") Long ownerId, @Param("partnerId") Long partnerId);
+    
+    @Query("SELECT COALESCE(SUM(s.unreadCount), 0) FROM ConversationSummary s WHERE s.owner.id = :ownerId")
+    long sumUnreadCountByOwnerId(@Param("ownerId") Long ownerId);
+    
+    /**
+     * Crée la ligne d'un participant si elle n'existe pas ; sans effet si elle existe déjà, y compris
+     * quand un envoi concurrent vient de la créer (l'insertion attend alors sa validation)
+     */
+    @Modifying
+    @Query(value = "INSERT INTO conversation_summary (id, owner_id, partner_id, conversation_key, unread_count) " +
+                   "VALUES (:id, :ownerId, :partnerId, :conversationKey, 0) " +
+                   "ON DUPLICATE KEY UPDATE owner_id = owner_id", nativeQuery = true)
+    int insertIfAbsent(@Param("id") Long id, @Param("ownerId") Long ownerId, @Param("partnerId") Long partnerId,
+                       @Param("conversationKey") String conversationKey);
+    
+    /**
+     * Enregistre un nouveau message dans le résumé, de façon atomique vis-à-vis des envois concurrents
+     */
+    @Modifying
+    @Query("UPDATE ConversationSummary s SET " +
+           "s.lastMessageId = CASE WHEN s.lastActivity IS NULL OR s.lastActivity <= :timestamp THEN :messageId ELSE s.lastMessageId END, " +
+           "s.lastActivity = CASE WHEN s.lastActivity IS NULL OR s.lastActivity <= :timestamp THEN :timestamp ELSE s.lastActivity END, " +
+           "s.unreadCount = s.unreadCount + :unreadIncrement " +
+           "WHERE s.owner.id = :ownerId AND s.partner.id = :partnerId")
+    int recordMessage(@Param("ownerId") Long ownerId, @Param("partnerId") Long partnerId,
+                      @Param("messageId") Long messageId, @Param("timestamp") LocalDateTime timestamp,
+                      @Param("unreadIncrement") int unreadIncrement);
+    
+    /**
+     * Retire des messages lus du compteur de non lus, sans descendre sous zéro
+     */
+    @Modifying
+    @Query("UPDATE ConversationSummary s SET s.unreadCount = CASE WHEN s.unreadCount > :count THEN s.unreadCount - :count ELSE 0 END " +
+           "WHERE s.owner.id = :ownerId AND s.partner.id = :partnerId")
+    int decrementUnread(@Param("ownerId") Long ownerId, @Param("partnerId") Long partnerId, @Param("count") int count);
+    
+    @Modifying
+    @Query("DELETE FROM ConversationSummary s")
+    int deleteAllInBulk();
+}
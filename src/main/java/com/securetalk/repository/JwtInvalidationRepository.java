@@ -0,0 +1,32 @@
+package com.securetalk.repository;
+
+import com.securetalk.model.JwtInvalidation;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface JwtInvalidationRepository extends JpaRepository<JwtInvalidation, Long> {
+    
+    /**
+     * Enregistre l'invalidation des tokens d'un utilisateur, en remplaçant la précédente
+     */
+    @Modifying
+    @Query(value = "INSERT INTO jwt_invalidations (user_id, invalidated_at) VALUES (:userId, :invalidatedAt) " +
+                   "ON DUPLICATE KEY UPDATE invalidated_at = :invalidatedAt", nativeQuery = true)
+    int upsert(@Param("userId") Long userId, @Param("invalidatedAt") long invalidatedAt);
+    
+    @Query("SELECT i FROM JwtInvalidation i WHERE i.invalidatedAt > :since")
+    List<JwtInvalidation> findInvalidatedSince(@Param("since") long since);
+    
+    /**
+     * Supprime les invalidations antérieures à tous les tokens encore valides
+     */
+    @Modifying
+    @Query("DELETE FROM JwtInvalidation i WHERE i.invalidatedAt < :before")
+    int deleteOlderThan(@Param("before") long before);
+}
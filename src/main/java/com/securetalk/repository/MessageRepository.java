@@ -1,20 +1,100 @@
 package com.securetalk.repository;
 
 import com.securetalk.model.Message;
-import com.securetalk.model.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
 public interface MessageRepository extends JpaRepository<Message, Long> {
     
-    @Query("SELECT m FROM Message m WHERE (m.sender = :user1 AND m.recipient = :user2) OR (m.sender = :user2 AND m.recipient = :user1) ORDER BY m.timestamp ASC")
-    List<Message> findConversation(@Param("user1") User user1, @Param("user2") User user2);
+    /**
+     * Colonnes d'une projection MessageView : participants lus depuis les clés étrangères,
+     * et seules les données chiffrées propres au lecteur (:userId)
+     */
+    String MESSAGE_VIEW_SELECT = "SELECT m.id AS id, m.sender.id AS senderId, m.recipient.id AS recipientId, " +
+           "m.timestamp AS timestamp, m.status AS status, m.formatVersion AS formatVersion, m.payload AS payload, " +
+           "CASE WHEN m.sender.id = :userId THEN m.encryptedContentSender ELSE m.encryptedContentRecipient END AS encryptedContent, " +
+           "CASE WHEN m.sender.id = :userId THEN m.ivSender ELSE m.ivRecipient END AS iv " +
+           "FROM Message m ";
     
-    @Query("SELECT DISTINCT u FROM User u WHERE u IN (SELECT m.sender FROM Message m WHERE m.recipient = :user) OR u IN (SELECT m.recipient FROM Message m WHERE m.sender = :user)")
-    List<User> findConversationPartners(@Param("user") User user);
+    /**
+     * Derniers messages d'une conversation, du plus récent au plus ancien
+     */
+    @Query(MESSAGE_VIEW_SELECT + "WHERE m.conversationKey = :conversationKey " +
+           "ORDER BY m.timestamp DESC, m.id DESC")
+    List<MessageView> findConversationLatest(@Param("conversationKey") String conversationKey,
+                                             @Param("userId") Long userId, Pageable pageable);
+    
+    /**
+     * Messages d'une conversation antérieurs à la position (timestamp, id), du plus récent au plus ancien
+     */
+    @Query(MESSAGE_VIEW_SELECT + "WHERE m.conversationKey = :conversationKey " +
+           "AND (m.timestamp < :timestamp OR (m.timestamp = :timestamp AND m.id < :id)) " +
+           "ORDER BY m.timestamp DESC, m.id DESC")
+    List<MessageView> findConversationBefore(@Param("conversationKey") String conversationKey, @Param("userId") Long userId,
+                                             @Param("timestamp") LocalDateTime timestamp, @Param("id") Long id, Pageable pageable);
+    
+    /**
+     * Messages d'une conversation postérieurs à la position (timestamp, id), du plus ancien au plus récent
+     */
+    @Query(MESSAGE_VIEW_SELECT + "WHERE m.conversationKey = :conversationKey " +
+           "AND (m.timestamp > :timestamp OR (m.timestamp = :timestamp AND m.id > :id)) " +
+           "ORDER BY m.timestamp ASC, m.id ASC")
+    List<MessageView> findConversationAfter(@Param("conversationKey") String conversationKey, @Param("userId") Long userId,
+                                            @Param("timestamp") LocalDateTime timestamp, @Param("id") Long id, Pageable pageable);
+    
+    @Query("SELECT MAX(m.id) FROM Message m WHERE m.conversationKey = :conversationKey AND m.recipient.id = :recipientId")
+    Long findLastReceivedId(@Param("conversationKey") String conversationKey, @Param("recipientId") Long recipientId);
+    
+    /**
+     * Passe à l'état lu les messages reçus d'une conversation jusqu'à un ID inclus
+     * @return Nombre de messages modifiés
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Message m SET m.status = com.securetalk.model.MessageStatus.READ " +
+           "WHERE m.conversationKey = :conversationKey AND m.recipient.id = :recipientId " +
+           "AND m.status <> com.securetalk.model.MessageStatus.READ AND m.id <= :upToId")
+    int markReadUpTo(@Param("conversationKey") String conversationKey, @Param("recipientId") Long recipientId,
+                     @Param("upToId") Long upToId);
+    
+    /**
+     * Agrégats par sens de conversation (expéditeur, destinataire) pour reconstruire les résumés :
+     * ID et date du dernier message, nombre de messages non lus par le destinataire
+     */
+    @Query("SELECT m.sender.id, m.recipient.id, MAX(m.id), MAX(m.timestamp), " +
+           "SUM(CASE WHEN m.status = com.securetalk.model.MessageStatus.READ THEN 0 ELSE 1 END) " +
+           "FROM Message m GROUP BY m.sender.id, m.recipient.id")
+    List<Object[]> summarizeByDirection();
+    
+    /**
+     * Renseigne la clé de conversation des messages antérieurs à cette colonne, sur une plage d'IDs
+     */
+    @Modifying
+    @Query("UPDATE Message m SET m.conversationKey = CASE WHEN m.sender.id < m.recipient.id " +
+           "THEN CONCAT(CAST(m.sender.id AS String), '_', CAST(m.recipient.id AS String)) " +
+           "ELSE CONCAT(CAST(m.recipient.id AS String), '_', CAST(m.sender.id AS String)) END " +
+           "WHERE m.conversationKey IS NULL AND m.id > :fromId AND m.id <= :toId")
+    int backfillConversationKeys(@Param("fromId") Long fromId, @Param("toId") Long toId);
+    
+    boolean existsByConversationKeyIsNull();
+    
+    @Query("SELECT m.id FROM Message m WHERE m.id IN :ids")
+    List<Long> findExistingIds(@Param("ids") Collection<Long> ids);
+    
+    /**
+     * Plus grand ID des messages sans clé de conversation (messages antérieurs à cette colonne)
+     */
+    @Query("SELECT MAX(m.id) FROM Message m WHERE m.conversationKey IS NULL")
+    Long findMaxIdWithoutConversationKey();
+    
+    @Query("SELECT m FROM Message m WHERE (m.formatVersion IS NULL OR m.formatVersion < :formatVersion) AND m.id > :afterId ORDER BY m.id ASC")
+    List<Message> findByFormatVersionBelow(@Param("formatVersion") Integer formatVersion, @Param("afterId") Long afterId, Pageable pageable);
 }
@@ -0,0 +1,39 @@
+package com.securetalk.repository;
+
+import com.securetalk.model.Message;
+import com.securetalk.model.MessageStatus;
+
+import java.time.LocalDateTime;
+
+/**
+ * Projection d'un message pour la lecture d'une conversation par l'un de ses participants.
+ *
+ * Seules les données chiffrées utiles au lecteur sont sélectionnées (son contenu et son IV pour
+ * le format 1), et les participants sont lus directement
+ * depuis les clés étrangères : aucune entité User ni Message n'est chargée dans le contexte de persistance.
+ */
+public interface MessageView {
+    Long getId();
+
+    Long getSenderId();
+
+    Long getRecipientId();
+
+    LocalDateTime getTimestamp();
+
+    MessageStatus getStatus();
+
+    Integer getFormatVersion();
+
+    // Format 3 : données binaires empaquetées
+    byte[] getPayload();
+
+    // Format 1 : contenu chiffré et IV du lecteur
+    String getEncryptedContent();
+
+    String getIv();
+
+    default int getEffectiveFormatVersion() {
+        return getFormatVersion() != null ? getFormatVersion() : Message.FORMAT_DOUBLE_ENCRYPTION;
+    }
+}
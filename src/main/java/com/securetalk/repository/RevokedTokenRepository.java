@@ -0,0 +1,32 @@
+package com.securetalk.repository;
+
+import com.securetalk.model.RevokedToken;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface RevokedTokenRepository extends JpaRepository<RevokedToken, String> {
+    
+    /**
+     * Enregistre une révocation ; sans effet si le token est déjà révoqué
+     */
+    @Modifying
+    @Query(value = "INSERT INTO revoked_tokens (jti, expires_at, revoked_at) VALUES (:jti, :expiresAt, :revokedAt) " +
+                   "ON DUPLICATE KEY UPDATE jti = jti", nativeQuery = true)
+    int insertIfAbsent(@Param("jti") String jti, @Param("expiresAt") long expiresAt, @Param("revokedAt") long revokedAt);
+    
+    /**
+     * Révocations enregistrées depuis un instant, pour des tokens pas encore expirés
+     */
+    @Query("SELECT t FROM RevokedToken t WHERE t.revokedAt > :since AND t.expiresAt > :now")
+    List<RevokedToken> findRevokedSince(@Param("since") long since, @Param("now") long now);
+    
+    @Modifying
+    @Query("DELETE FROM RevokedToken t WHERE t.expiresAt <= :now")
+    int deleteExpired(@Param("now") long now);
+}
@@ -0,0 +1,444 @@
+package com.securetalk.repository;
+
+import com.securetalk.model.Message;
+import com.securetalk.model.MessageStatus;
+import com.securetalk.model.User;
+import com.securetalk.util.ConsistentHashRing;
+import com.zaxxer.hikari.HikariDataSource;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StringUtils;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Stockage des messages réparti sur plusieurs bases (securetalk.sharding.shard-urls).
+ *
+ * Une conversation (clé canonique "petitId_grandId") est placée sur une seule base par un anneau de
+ * hachage cohérent : toutes les lectures et écritures d'une conversation touchent une seule base et
+ * profitent de son index (conversation_key, timestamp, id). Les recherches par ID seul et la liste des
+ * partenaires interrogent toutes les bases en parallèle et fusionnent les résultats ; les IDs étant
+ * attribués par l'application, ils restent uniques entre les bases.
+ *
+ * Les utilisateurs, clés et résumés de conversation restent sur la base principale : la table messages
+ * d'une base de répartition n'a donc pas de clé étrangère vers users.
+ */
+@Repository
+@ConditionalOnExpression("!'${securetalk.sharding.shard-urls:}'.trim().isEmpty()")
+public class ShardedMessageRepository {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShardedMessageRepository.class);
+
+    public static final String COLUMNS = "id, sender_id, recipient_id, conversation_key, " +
+            "encrypted_content_recipient, encrypted_content_sender, iv_recipient, iv_sender, timestamp, status, " +
+            "format_version, payload";
+
+    private static final String INSERT = "INSERT INTO messages (" + COLUMNS + ") " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS messages (" +
+            "id BIGINT NOT NULL PRIMARY KEY, " +
+            "sender_id BIGINT NOT NULL, " +
+            "recipient_id BIGINT NOT NULL, " +
+            "conversation_key VARCHAR(41) NOT NULL, " +
+            "encrypted_content_recipient TEXT NOT NULL, " +
+            "encrypted_content_sender TEXT NOT NULL, " +
+            "iv_recipient VARCHAR(255) NOT NULL, " +
+            "iv_sender VARCHAR(255) NOT NULL, " +
+            "timestamp DATETIME(6) NOT NULL, " +
+            "status VARCHAR(16), " +
+            "format_version INT, " +
+            "payload MEDIUMBLOB)";
+
+    // Index créés par des instructions séparées : la syntaxe INDEX en ligne n'existe qu'en MySQL
+    private static final Map<String, String> INDEXES = Map.of(
+            "idx_messages_conversation", "(conversation_key, timestamp, id)",
+            "idx_messages_sender", "(sender_id)",
+            "idx_messages_recipient", "(recipient_id)");
+
+    // Mêmes colonnes que MessageView : seules les données chiffrées du lecteur (premier paramètre) sont lues
+    private static final String VIEW_SELECT = "SELECT id, sender_id, recipient_id, timestamp, status, format_version, payload, " +
+            "CASE WHEN sender_id = :userId THEN encrypted_content_sender ELSE encrypted_content_recipient END AS encrypted_content, " +
+            "CASE WHEN sender_id = :userId THEN iv_sender ELSE iv_recipient END AS iv " +
+            "FROM messages ";
+
+    @Value("${securetalk.sharding.shard-urls:}")
+    private List<String> shardUrls;
+
+    @Value("${securetalk.sharding.username:${spring.datasource.username:}}")
+    private String username;
+
+    @Value("${securetalk.sharding.password:${spring.datasource.password:}}")
+    private String password;
+
+    @Value("${securetalk.sharding.driver-class-name:${spring.datasource.driverClassName:}}")
+    private String driverClassName;
+
+    @Value("${securetalk.sharding.pool-size:10}")
+    private int poolSize;
+
+    @Value("${securetalk.sharding.virtual-nodes:160}")
+    private int virtualNodes;
+
+    private List<Shard> shards;
+    private ConsistentHashRing<Shard> ring;
+    private ExecutorService fanOutExecutor;
+
+    /**
+     * Base de répartition : son nom (shard-N, selon sa position dans la configuration) fixe sa place sur l'anneau
+     */
+    public record Shard(String name, HikariDataSource dataSource, NamedParameterJdbcTemplate jdbc,
+                        TransactionTemplate transactionTemplate) {
+
+        public JdbcOperations jdbcOperations() {
+            return jdbc.getJdbcOperations();
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        List<String> urls = shardUrls.stream().filter(StringUtils::hasText).map(String::trim).toList();
+        List<Shard> created = new ArrayList<>(urls.size());
+        for (int i = 0; i < urls.size(); i++) {
+            HikariDataSource dataSource = new HikariDataSource();
+            dataSource.setPoolName("shard-" + i);
+            dataSource.setJdbcUrl(urls.get(i));
+            dataSource.setUsername(username);
+            dataSource.setPassword(password);
+            if (StringUtils.hasText(driverClassName)) {
+                dataSource.setDriverClassName(driverClassName);
+            }
+            dataSource.setMaximumPoolSize(poolSize);
+
+            Shard shard = new Shard("shard-" + i, dataSource, new NamedParameterJdbcTemplate(dataSource),
+                    new TransactionTemplate(new DataSourceTransactionManager(dataSource)));
+            shard.jdbcOperations().execute(CREATE_TABLE);
+            createMissingIndexes(shard);
+            created.add(shard);
+        }
+        shards = List.copyOf(created);
+        ring = new ConsistentHashRing<>(shards, Shard::name, virtualNodes);
+        fanOutExecutor = Executors.newFixedThreadPool(shards.size() * 2, runnable -> {
+            Thread thread = new Thread(runnable, "shard-fan-out");
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.info("Messages répartis sur {} bases ({} positions par base sur l'anneau)", shards.size(), virtualNodes);
+    }
+
+    private static void createMissingIndexes(Shard shard) {
+        Set<String> existing = shard.jdbcOperations().execute((Connection connection) -> {
+            DatabaseMetaData metaData = connection.getMetaData();
+            String table = metaData.storesUpperCaseIdentifiers() ? "MESSAGES" : "messages";
+            Set<String> names = new HashSet<>();
+            try (ResultSet rs = metaData.getIndexInfo(connection.getCatalog(), null, table, false, false)) {
+                while (rs.next()) {
+                    if (rs.getString("INDEX_NAME") != null) {
+                        names.add(rs.getString("INDEX_NAME").toLowerCase(Locale.ROOT));
+                    }
+                }
+            }
+            return names;
+        });
+        INDEXES.forEach((name, columns) -> {
+            if (existing == null || !existing.contains(name)) {
+                shard.jdbcOperations().execute("CREATE INDEX " + name + " ON messages " + columns);
+            }
+        });
+    }
+
+    @PreDestroy
+    void close() {
+        fanOutExecutor.shutdownNow();
+        shards.forEach(shard -> shard.dataSource().close());
+    }
+
+    public List<Shard> getShards() {
+        return shards;
+    }
+
+    /**
+     * Base propriétaire d'une conversation
+     */
+    public Shard shardFor(String conversationKey) {
+        return ring.nodeFor(conversationKey);
+    }
+
+    public void insert(Message message) {
+        insertRows(shardFor(message.getConversationKey()).jdbcOperations(), List.of(message));
+    }
+
+    /**
+     * Insère un lot de messages : une insertion groupée par base, dans une transaction par base.
+     * Les messages déjà présents sont ignorés : un lot réessayé après la validation d'une partie des
+     * bases ne provoque pas de doublon de clé primaire.
+     * @return Nombre de messages insérés
+     */
+    public int insertAll(List<Message> messages) {
+        Map<Shard, List<Message>> byShard = new LinkedHashMap<>();
+        for (Message message : messages) {
+            byShard.computeIfAbsent(shardFor(message.getConversationKey()), k -> new ArrayList<>()).add(message);
+        }
+        int inserted = 0;
+        for (Map.Entry<Shard, List<Message>> entry : byShard.entrySet()) {
+            Shard shard = entry.getKey();
+            List<Message> rows = entry.getValue();
+            Integer count = shard.transactionTemplate().execute(status -> {
+                Set<Long> existing = new HashSet<>(shard.jdbc().queryForList("SELECT id FROM messages WHERE id IN (:ids)",
+                        Map.of("ids", rows.stream().map(Message::getId).toList()), Long.class));
+                List<Message> missing = rows.stream().filter(message -> !existing.contains(message.getId())).toList();
+                if (!missing.isEmpty()) {
+                    insertRows(shard.jdbcOperations(), missing);
+                }
+                return missing.size();
+            });
+            inserted += count != null ? count : 0;
+        }
+        return inserted;
+    }
+
+    public List<MessageView> findConversationLatest(String conversationKey, Long userId, int limit) {
+        return queryViews(conversationKey, userId, "WHERE conversation_key = :conversationKey " +
+                "ORDER BY timestamp DESC, id DESC LIMIT :limit", null, null, limit);
+    }
+
+    public List<MessageView> findConversationBefore(String conversationKey, Long userId,
+                                                    LocalDateTime timestamp, Long id, int limit) {
+        return queryViews(conversationKey, userId, "WHERE conversation_key = :conversationKey " +
+                "AND (timestamp < :timestamp OR (timestamp = :timestamp AND id < :id)) " +
+                "ORDER BY timestamp DESC, id DESC LIMIT :limit", timestamp, id, limit);
+    }
+
+    public List<MessageView> findConversationAfter(String conversationKey, Long userId,
+                                                   LocalDateTime timestamp, Long id, int limit) {
+        return queryViews(conversationKey, userId, "WHERE conversation_key = :conversationKey " +
+                "AND (timestamp > :timestamp OR (timestamp = :timestamp AND id > :id)) " +
+                "ORDER BY timestamp ASC, id ASC LIMIT :limit", timestamp, id, limit);
+    }
+
+    public Long findLastReceivedId(String conversationKey, Long recipientId) {
+        return shardFor(conversationKey).jdbcOperations().queryForObject(
+                "SELECT MAX(id) FROM messages WHERE conversation_key = ? AND recipient_id = ?",
+                Long.class, conversationKey, recipientId);
+    }
+
+    /**
+     * Passe à l'état lu les messages reçus d'une conversation jusqu'à un ID inclus
+     * @return Nombre de messages modifiés
+     */
+    public int markReadUpTo(String conversationKey, Long recipientId, Long upToId) {
+        return shardFor(conversationKey).jdbcOperations().update(
+                "UPDATE messages SET status = ? WHERE conversation_key = ? AND recipient_id = ? " +
+                "AND status <> ? AND id <= ?",
+                MessageStatus.READ.name(), conversationKey, recipientId, MessageStatus.READ.name(), upToId);
+    }
+
+    /**
+     * Recherche un message par son seul ID, sur toutes les bases
+     */
+    public Optional<Message> findById(Long id) {
+        return fanOut(shard -> shard.jdbcOperations().query(
+                "SELECT " + COLUMNS + " FROM messages WHERE id = ?", MESSAGE_MAPPER, id)).stream().findFirst();
+    }
+
+    public List<Message> findAllById(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        return fanOut(shard -> shard.jdbc().query("SELECT " + COLUMNS + " FROM messages WHERE id IN (:ids)",
+                Map.of("ids", ids), MESSAGE_MAPPER));
+    }
+
+    public List<Long> findExistingIds(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        return fanOut(shard -> shard.jdbc().queryForList("SELECT id FROM messages WHERE id IN (:ids)",
+                Map.of("ids", ids), Long.class));
+    }
+
+    /**
+     * Agrégats par sens de conversation, comme MessageRepository.summarizeByDirection.
+     * Une conversation n'étant stockée que sur une base, les lignes des bases ne se recouvrent pas.
+     */
+    public List<Object[]> summarizeByDirection() {
+        return fanOut(shard -> shard.jdbcOperations().query(
+                "SELECT sender_id, recipient_id, MAX(id), MAX(timestamp), " +
+                "SUM(CASE WHEN status = ? THEN 0 ELSE 1 END) FROM messages GROUP BY sender_id, recipient_id",
+                (rs, rowNum) -> new Object[] {rs.getLong(1), rs.getLong(2), rs.getLong(3),
+                        rs.getTimestamp(4).toLocalDateTime(), rs.getLong(5)},
+                MessageStatus.READ.name()));
+    }
+
+    /**
+     * Exécute une requête sur toutes les bases en parallèle et concatène les résultats
+     */
+    public <R> List<R> fanOut(Function<Shard, List<R>> query) {
+        if (shards.size() == 1) {
+            return query.apply(shards.get(0));
+        }
+        List<CompletableFuture<List<R>>> futures = shards.stream()
+                .map(shard -> CompletableFuture.supplyAsync(() -> query.apply(shard), fanOutExecutor))
+                .toList();
+        List<R> results = new ArrayList<>();
+        for (CompletableFuture<List<R>> future : futures) {
+            results.addAll(future.join());
+        }
+        return results;
+    }
+
+    /**
+     * Insère des messages complets (toutes colonnes) par une requête groupée
+     */
+    public static void insertRows(JdbcOperations jdbc, List<Message> messages) {
+        jdbc.batchUpdate(INSERT, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                Message message = messages.get(i);
+                ps.setLong(1, message.getId());
+                ps.setLong(2, message.getSender().getId());
+                ps.setLong(3, message.getRecipient().getId());
+                ps.setString(4, message.getConversationKey());
+                ps.setString(5, message.getEncryptedContentRecipient());
+                ps.setString(6, message.getEncryptedContentSender());
+                ps.setString(7, message.getIvRecipient());
+                ps.setString(8, message.getIvSender());
+                ps.setTimestamp(9, Timestamp.valueOf(message.getTimestamp()));
+                ps.setString(10, message.getStatus() != null ? message.getStatus().name() : null);
+                ps.setObject(11, message.getFormatVersion());
+                ps.setBytes(12, message.getPayload());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return messages.size();
+            }
+        });
+    }
+
+    /**
+     * Lecture d'une ligne complète (colonnes {@link #COLUMNS}) en message détaché ;
+     * expéditeur et destinataire ne portent que leur ID
+     */
+    public static final RowMapper<Message> MESSAGE_MAPPER = (rs, rowNum) -> {
+        Message message = new Message();
+        message.setId(rs.getLong("id"));
+        message.setSender(userRef(rs.getLong("sender_id")));
+        message.setRecipient(userRef(rs.getLong("recipient_id")));
+        message.setConversationKey(rs.getString("conversation_key"));
+        message.setEncryptedContentRecipient(rs.getString("encrypted_content_recipient"));
+        message.setEncryptedContentSender(rs.getString("encrypted_content_sender"));
+        message.setIvRecipient(rs.getString("iv_recipient"));
+        message.setIvSender(rs.getString("iv_sender"));
+        message.setTimestamp(rs.getTimestamp("timestamp").toLocalDateTime());
+        String status = rs.getString("status");
+        message.setStatus(status != null ? MessageStatus.valueOf(status) : null);
+        message.setFormatVersion(rs.getObject("format_version", Integer.class));
+        message.setPayload(rs.getBytes("payload"));
+        return message;
+    };
+
+    private List<MessageView> queryViews(String conversationKey, Long userId, String clause,
+                                         LocalDateTime timestamp, Long id, int limit) {
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("conversationKey", conversationKey);
+        params.put("userId", userId);
+        params.put("timestamp", timestamp != null ? Timestamp.valueOf(timestamp) : null);
+        params.put("id", id);
+        params.put("limit", limit);
+        return shardFor(conversationKey).jdbc().query(VIEW_SELECT + clause, params, ShardedMessageRepository::mapView);
+    }
+
+    private static MessageView mapView(ResultSet rs, int rowNum) throws SQLException {
+        String status = rs.getString("status");
+        return new RowMessageView(rs.getLong("id"), rs.getLong("sender_id"), rs.getLong("recipient_id"),
+                rs.getTimestamp("timestamp").toLocalDateTime(), status != null ? MessageStatus.valueOf(status) : null,
+                rs.getObject("format_version", Integer.class), rs.getBytes("payload"),
+                rs.getString("encrypted_content"), rs.getString("iv"));
+    }
+
+    private static User userRef(Long id) {
+        User user = new User();
+        user.setId(id);
+        return user;
+    }
+
+    private record RowMessageView(Long id, Long senderId, Long recipientId, LocalDateTime timestamp,
+                                  MessageStatus status, Integer formatVersion, byte[] payload,
+                                  String encryptedContent, String iv) implements MessageView {
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        @Override
+        public Long getSenderId() {
+            return senderId;
+        }
+
+        @Override
+        public Long getRecipientId() {
+            return recipientId;
+        }
+
+        @Override
+        public LocalDateTime getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public MessageStatus getStatus() {
+            return status;
+        }
+
+        @Override
+        public Integer getFormatVersion() {
+            return formatVersion;
+        }
+
+        @Override
+        public byte[] getPayload() {
+            return payload;
+        }
+
+        @Override
+        public String getEncryptedContent() {
+            return encryptedContent;
+        }
+
+        @Override
+        public String getIv() {
+            return iv;
+        }
+    }
+}
@@ -1,9 +1,13 @@
 package com.securetalk.repository;
 
 import com.securetalk.model.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
 import java.util.Optional;
 
 @Repository
@@ -15,4 +19,11 @@ public interface UserRepository extends JpaRepository<User, Long> {
     Boolean existsByUsername(String username);
     
     Boolean existsByEmail(String email);
+    
+    /**
+     * IDs des utilisateurs sans clé de chiffrement, par ordre croissant à partir de afterId
+     */
+    @Query("SELECT u.id FROM User u WHERE u.id > :afterId " +
+           "AND NOT EXISTS (SELECT k.id FROM UserKey k WHERE k.user = u) ORDER BY u.id")
+    List<Long> findIdsWithoutKey(@Param("afterId") Long afterId, Pageable pageable);
 }
@@ -1,6 +1,8 @@
 package com.securetalk.security.jwt;
 
+import com.securetalk.security.services.UserDetailsImpl;
 import com.securetalk.security.services.UserDetailsServiceImpl;
+import io.jsonwebtoken.Claims;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -24,6 +26,12 @@ public class AuthTokenFilter extends OncePerRequestFilter {
     @Autowired
     private UserDetailsServiceImpl userDetailsService;
 
+    @Autowired
+    private JwtInvalidationRegistry invalidationRegistry;
+
+    @Autowired
+    private RevokedTokenRegistry revokedTokenRegistry;
+
     private static final Logger logger = LoggerFactory.getLogger(AuthTokenFilter.class);
 
     @Override
@@ -31,16 +39,19 @@ public class AuthTokenFilter extends OncePerRequestFilter {
             throws ServletException, IOException {
         try {
             String jwt = parseJwt(request);
-            if (jwt != null && jwtUtils.validateJwtToken(jwt)) {
-                String username = jwtUtils.getUserNameFromJwtToken(jwt);
-                
-                // Ajouter des logs pour le débogage
-                logger.debug("JWT token valide, username extrait: {}", username);
-                
-                UserDetails userDetails = userDetailsService.loadUserByUsername(username);
+            Claims claims = jwt != null ? jwtUtils.parseClaims(jwt) : null;
+            if (claims != null && revokedTokenRegistry.isRevoked(claims.getId(), claims.getExpiration())) {
+                logger.debug("Token révoqué présenté pour l'utilisateur: {}", claims.getSubject());
+            } else if (claims != null) {
+                // L'identité et les rôles sont lus dans le token : aucune requête par appel
+                UserDetailsImpl claimsUser = jwtUtils.getUserDetailsFromClaims(claims);
+                UserDetails userDetails = claimsUser;
                 
-                // Ajouter des logs pour confirmer que l'utilisateur a été trouvé
-                logger.debug("Utilisateur trouvé dans la base de données: {}", userDetails.getUsername());
+                if (claimsUser == null || invalidationRegistry.isInvalidated(claimsUser.getId(), claims.getIssuedAt())) {
+                    // Token sans revendications d'identité, ou utilisateur modifié depuis son émission
+                    logger.debug("Utilisateur {} relu depuis la base de données", claims.getSubject());
+                    userDetails = userDetailsService.loadUserByUsername(claims.getSubject());
+                }
                 
                 UsernamePasswordAuthenticationToken authentication =
                         new UsernamePasswordAuthenticationToken(
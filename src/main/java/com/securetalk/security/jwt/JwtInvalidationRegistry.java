@@ -0,0 +1,147 @@
+package com.securetalk.security.jwt;
+
+import com.securetalk.model.JwtInvalidation;
+import com.securetalk.model.User;
+import com.securetalk.repository.JwtInvalidationRepository;
+import com.securetalk.repository.UserRepository;
+import com.securetalk.security.services.UserAccountChangedEvent;
+import com.securetalk.security.services.UserDetailsServiceImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Utilisateurs dont les revendications des tokens déjà émis ne sont plus fiables (mot de passe ou
+ * rôles modifiés). Un token émis avant l'invalidation est toujours accepté, mais l'utilisateur est
+ * relu en base au lieu d'être construit depuis le token.
+ *
+ * Une invalidation n'a plus d'effet une fois tous les tokens antérieurs expirés : elle est alors
+ * oubliée. Les invalidations sont aussi enregistrées dans la table jwt_invalidations, que chaque
+ * instance relit périodiquement comme les révocations de {@link RevokedTokenRegistry}. Un compte
+ * invalidé par une autre instance est aussi retiré du cache d'authentification local.
+ */
+@Component
+public class JwtInvalidationRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(JwtInvalidationRegistry.class);
+
+    // Chevauchement des relectures, comme pour les révocations de tokens
+    private static final long REFRESH_OVERLAP_MS = 60_000;
+
+    // Intervalle minimal entre deux suppressions des invalidations périmées
+    private static final long PURGE_INTERVAL_MS = 3_600_000;
+
+    @Value("${jwt.expiration}")
+    private int jwtExpirationMs;
+
+    @Autowired
+    private JwtInvalidationRepository jwtInvalidationRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserDetailsServiceImpl userDetailsService;
+
+    // Utilisateur -> instant de la dernière invalidation (ms)
+    private final Map<Long, Long> invalidatedAt = new ConcurrentHashMap<>();
+
+    // Appelé après la validation de la modification du compte : l'écriture a sa propre transaction
+    private final TransactionTemplate sharedWriteTransaction;
+
+    // Instant de la dernière relecture réussie de la table partagée (ms)
+    private volatile long lastRefreshAt = 0;
+    private volatile long nextPurgeAt = 0;
+
+    public JwtInvalidationRegistry(PlatformTransactionManager transactionManager) {
+        this.sharedWriteTransaction = new TransactionTemplate(transactionManager);
+        this.sharedWriteTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Invalide les revendications des tokens émis jusqu'à maintenant pour un utilisateur
+     */
+    public void invalidate(Long userId) {
+        long now = System.currentTimeMillis();
+        invalidatedAt.values().removeIf(at -> at < now - jwtExpirationMs);
+        invalidatedAt.put(userId, now);
+        try {
+            sharedWriteTransaction.executeWithoutResult(status -> jwtInvalidationRepository.upsert(userId, now));
+        } catch (DataAccessException e) {
+            // L'invalidation reste appliquée sur cette instance
+            logger.error("Invalidation des tokens de l'utilisateur {} non partagée avec les autres instances: {}",
+                    userId, e.getMessage());
+        }
+        logger.debug("Revendications des tokens de l'utilisateur {} invalidées", userId);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUserAccountChanged(UserAccountChangedEvent event) {
+        // Un compte créé n'a aucun token antérieur
+        if (event.change() != UserAccountChangedEvent.Change.CREATED) {
+            invalidate(event.userId());
+        }
+    }
+
+    /**
+     * Relit les invalidations enregistrées par les autres instances depuis la dernière relecture,
+     * et supprime de temps en temps celles qui ne concernent plus aucun token valide
+     */
+    @Scheduled(fixedDelayString = "${jwt.revocation.refresh-interval-ms:5000}")
+    public void refresh() {
+        long now = System.currentTimeMillis();
+        try {
+            List<JwtInvalidation> invalidations =
+                    jwtInvalidationRepository.findInvalidatedSince(lastRefreshAt - REFRESH_OVERLAP_MS);
+            invalidatedAt.values().removeIf(at -> at < now - jwtExpirationMs);
+            List<Long> changedElsewhere = new ArrayList<>();
+            for (JwtInvalidation invalidation : invalidations) {
+                long at = invalidation.getInvalidatedAt();
+                Long known = invalidatedAt.get(invalidation.getUserId());
+                if (at >= now - jwtExpirationMs && (known == null || known < at)) {
+                    invalidatedAt.merge(invalidation.getUserId(), at, Math::max);
+                    changedElsewhere.add(invalidation.getUserId());
+                }
+            }
+            if (!changedElsewhere.isEmpty()) {
+                for (User user : userRepository.findAllById(changedElsewhere)) {
+                    userDetailsService.evict(user.getUsername(), user.getEmail());
+                }
+                logger.debug("{} invalidations de tokens reçues des autres instances", changedElsewhere.size());
+            }
+            lastRefreshAt = now;
+            if (now >= nextPurgeAt) {
+                nextPurgeAt = now + PURGE_INTERVAL_MS;
+                sharedWriteTransaction.executeWithoutResult(status ->
+                        jwtInvalidationRepository.deleteOlderThan(now - jwtExpirationMs));
+            }
+        } catch (DataAccessException e) {
+            logger.warn("Relecture des invalidations de tokens impossible: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Indique si un token émis à cet instant doit être complété par une lecture en base
+     */
+    public boolean isInvalidated(Long userId, Date issuedAt) {
+        if (invalidatedAt.isEmpty()) {
+            return false;
+        }
+        Long at = invalidatedAt.get(userId);
+        // L'émission est arrondie à la seconde inférieure : un token antérieur est toujours détecté
+        return at != null && (issuedAt == null || issuedAt.getTime() < at);
+    }
+}
@@ -0,0 +1,255 @@
+package com.securetalk.security.jwt;
+
+import com.securetalk.model.RevokedToken;
+import com.securetalk.repository.RevokedTokenRepository;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Identifiants (jti) des tokens révoqués à la déconnexion, vérifiés à chaque requête sans accès à
+ * la base.
+ *
+ * Les révocations sont rangées par tranche de date d'expiration du token : une tranche entière est
+ * oubliée quand tous ses tokens ont expiré (le parseur les refuse alors de lui-même). Chaque tranche
+ * associe un filtre de Bloom, consulté en premier, à l'ensemble exact des identifiants, consulté
+ * seulement quand le filtre répond positivement : la plupart des tokens valides ne lisent que
+ * quelques bits, et un faux positif du filtre ne refuse jamais un token valide.
+ *
+ * Chaque révocation est aussi enregistrée dans la table revoked_tokens, partagée par les instances :
+ * chaque instance y relit périodiquement les révocations récentes (toutes au démarrage). Un token
+ * révoqué sur une instance est donc refusé par les autres au plus tard après un intervalle de
+ * relecture. Les lignes sont supprimées après l'expiration de leur token.
+ */
+@Component
+public class RevokedTokenRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(RevokedTokenRegistry.class);
+
+    // Nombre de fonctions de hachage du filtre : optimal pour ~1 % de faux positifs
+    private static final int HASH_FUNCTIONS = 7;
+
+    // Chevauchement des relectures : couvre le décalage d'horloge entre instances, les validations
+    // tardives et le retard des répliques
+    private static final long REFRESH_OVERLAP_MS = 60_000;
+
+    @Autowired
+    private RevokedTokenRepository revokedTokenRepository;
+
+    @Value("${jwt.expiration}")
+    private int jwtExpirationMs;
+
+    // Nombre de tranches couvrant la durée de vie d'un token
+    @Value("${jwt.revocation.buckets:24}")
+    private int bucketCount;
+
+    // Révocations attendues par tranche, pour dimensionner le filtre
+    @Value("${jwt.revocation.expected-per-bucket:10000}")
+    private int expectedPerBucket;
+
+    private long bucketWidthMs;
+    private int filterBits;
+
+    // Les révocations partagées sont écrites indépendamment de la transaction appelante
+    private final TransactionTemplate sharedWriteTransaction;
+
+    // Instant de la dernière relecture réussie de la table partagée (ms)
+    private volatile long lastRefreshAt = 0;
+    private volatile long nextPurgeAt = 0;
+
+    // Indice de tranche (expiration / largeur) -> révocations des tokens expirant dans la tranche
+    private final ConcurrentHashMap<Long, Bucket> buckets = new ConcurrentHashMap<>();
+
+    private final AtomicLong revokedCount = new AtomicLong();
+    private final AtomicLong checkCount = new AtomicLong();
+    private final AtomicLong filterHitCount = new AtomicLong();
+    private final AtomicLong falsePositiveCount = new AtomicLong();
+    private final AtomicLong loadedCount = new AtomicLong();
+    private final AtomicLong refreshFailureCount = new AtomicLong();
+
+    /**
+     * Révocations d'une tranche : filtre de Bloom et ensemble exact
+     */
+    private static final class Bucket {
+        private final AtomicLongArray bits;
+        private final int bitCount;
+        private final Set<String> ids = ConcurrentHashMap.newKeySet();
+
+        Bucket(int bitCount) {
+            this.bitCount = bitCount;
+            this.bits = new AtomicLongArray((bitCount + 63) / 64);
+        }
+
+        void add(String id) {
+            long hash = hash(id);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32) | 1;
+            for (int i = 0; i < HASH_FUNCTIONS; i++) {
+                int bit = Math.floorMod(h1 + i * h2, bitCount);
+                long mask = 1L << bit;
+                bits.getAndAccumulate(bit >>> 6, mask, (word, m) -> word | m);
+            }
+            ids.add(id);
+        }
+
+        boolean mightContain(String id) {
+            long hash = hash(id);
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32) | 1;
+            for (int i = 0; i < HASH_FUNCTIONS; i++) {
+                int bit = Math.floorMod(h1 + i * h2, bitCount);
+                if ((bits.get(bit >>> 6) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean contains(String id) {
+            return ids.contains(id);
+        }
+
+        int size() {
+            return ids.size();
+        }
+    }
+
+    public RevokedTokenRegistry(PlatformTransactionManager transactionManager) {
+        this.sharedWriteTransaction = new TransactionTemplate(transactionManager);
+        this.sharedWriteTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    @PostConstruct
+    void init() {
+        bucketWidthMs = Math.max(1, (long) jwtExpirationMs / Math.max(1, bucketCount));
+        // m = -n ln(p) / ln(2)^2 avec p = 1 %
+        filterBits = (int) Math.max(64, Math.ceil(-expectedPerBucket * Math.log(0.01) / (Math.log(2) * Math.log(2))));
+        logger.info("Révocation des tokens: {} tranches de {} ms, filtre de {} bits par tranche",
+                bucketCount, bucketWidthMs, filterBits);
+    }
+
+    /**
+     * Révoque un token jusqu'à son expiration
+     * @param tokenId Identifiant (jti) du token
+     * @param expiration Date d'expiration du token
+     */
+    public void revoke(String tokenId, Date expiration) {
+        long now = System.currentTimeMillis();
+        if (tokenId == null || expiration == null || expiration.getTime() <= now) {
+            return;
+        }
+        add(tokenId, expiration.getTime(), now);
+        revokedCount.incrementAndGet();
+        try {
+            sharedWriteTransaction.executeWithoutResult(status ->
+                    revokedTokenRepository.insertIfAbsent(tokenId, expiration.getTime(), now));
+        } catch (DataAccessException e) {
+            // Le token reste révoqué sur cette instance
+            logger.error("Révocation du token {} non partagée avec les autres instances: {}", tokenId, e.getMessage());
+        }
+        logger.debug("Token {} révoqué jusqu'au {}", tokenId, expiration);
+    }
+
+    /**
+     * Relit les révocations enregistrées par les autres instances depuis la dernière relecture,
+     * et supprime de temps en temps celles dont le token a expiré
+     */
+    @Scheduled(fixedDelayString = "${jwt.revocation.refresh-interval-ms:5000}")
+    public void refresh() {
+        long now = System.currentTimeMillis();
+        try {
+            List<RevokedToken> revoked = revokedTokenRepository.findRevokedSince(lastRefreshAt - REFRESH_OVERLAP_MS, now);
+            for (RevokedToken token : revoked) {
+                add(token.getJti(), token.getExpiresAt(), now);
+            }
+            loadedCount.addAndGet(revoked.size());
+            lastRefreshAt = now;
+            if (now >= nextPurgeAt) {
+                nextPurgeAt = now + bucketWidthMs;
+                Integer purged = sharedWriteTransaction.execute(status -> revokedTokenRepository.deleteExpired(now));
+                logger.debug("{} révocations de tokens expirés supprimées", purged);
+            }
+        } catch (DataAccessException e) {
+            refreshFailureCount.incrementAndGet();
+            logger.warn("Relecture des tokens révoqués impossible: {}", e.getMessage());
+        }
+    }
+
+    private void add(String tokenId, long expiresAt, long now) {
+        // Les tranches dont tous les tokens ont expiré sont oubliées
+        buckets.keySet().removeIf(index -> (index + 1) * bucketWidthMs <= now);
+        buckets.computeIfAbsent(bucketOf(expiresAt), index -> new Bucket(filterBits)).add(tokenId);
+    }
+
+    /**
+     * Indique si un token non expiré a été révoqué
+     * @param tokenId Identifiant (jti) du token, null pour un token émis sans identifiant
+     * @param expiration Date d'expiration du token
+     */
+    public boolean isRevoked(String tokenId, Date expiration) {
+        if (buckets.isEmpty() || tokenId == null || expiration == null) {
+            return false;
+        }
+        checkCount.incrementAndGet();
+        Bucket bucket = buckets.get(bucketOf(expiration.getTime()));
+        if (bucket == null || !bucket.mightContain(tokenId)) {
+            return false;
+        }
+        filterHitCount.incrementAndGet();
+        if (bucket.contains(tokenId)) {
+            return true;
+        }
+        falsePositiveCount.incrementAndGet();
+        return false;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("buckets", buckets.size());
+        stats.put("size", buckets.values().stream().mapToInt(Bucket::size).sum());
+        stats.put("revoked", revokedCount.get());
+        stats.put("checks", checkCount.get());
+        stats.put("filterHits", filterHitCount.get());
+        stats.put("falsePositives", falsePositiveCount.get());
+        stats.put("loaded", loadedCount.get());
+        stats.put("refreshFailures", refreshFailureCount.get());
+        return stats;
+    }
+
+    private long bucketOf(long expiresAt) {
+        return expiresAt / bucketWidthMs;
+    }
+
+    /**
+     * Hachage 64 bits FNV-1a suivi d'un mélange final, dont les deux moitiés servent au double hachage
+     */
+    private static long hash(String id) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            hash ^= id.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,210 @@
+package com.securetalk.security.services;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exécute les vérifications de mot de passe (BCrypt) sur un pool dédié et borné, hors des threads
+ * Tomcat : une vague de connexions ne peut occuper que ce pool, et les requêtes de messagerie
+ * restent servies.
+ *
+ * L'admission est contrôlée avant toute vérification :
+ * <ul>
+ *   <li>nombre de connexions simultanées par adresse IP et par compte (refus immédiat, 429) ;</li>
+ *   <li>file d'attente bornée du pool (refus immédiat, 503) ;</li>
+ *   <li>attente maximale dans la file : une demande restée trop longtemps est abandonnée (503),
+ *   le client ayant probablement déjà renoncé.</li>
+ * </ul>
+ */
+@Component
+public class AuthenticationExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(AuthenticationExecutor.class);
+
+    @Autowired
+    private AuthenticationManager authenticationManager;
+
+    // 0 = nombre de processeurs : le hachage est purement CPU
+    @Value("${security.login.pool-size:0}")
+    private int poolSize;
+
+    @Value("${security.login.queue-capacity:100}")
+    private int queueCapacity;
+
+    @Value("${security.login.max-queue-wait-ms:5000}")
+    private long maxQueueWaitMs;
+
+    @Value("${security.login.max-concurrent-per-ip:4}")
+    private int maxConcurrentPerAddress;
+
+    @Value("${security.login.max-concurrent-per-account:2}")
+    private int maxConcurrentPerAccount;
+
+    private ThreadPoolExecutor executor;
+
+    // Connexions en cours par adresse et par compte ; une entrée disparaît quand son compteur revient à zéro
+    private final ConcurrentHashMap<String, Integer> inFlightByAddress = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> inFlightByAccount = new ConcurrentHashMap<>();
+
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong throttledCount = new AtomicLong();
+    private final AtomicLong expiredCount = new AtomicLong();
+    private final AtomicLong totalQueueWaitNanos = new AtomicLong();
+    private final AtomicLong maxQueueWaitNanos = new AtomicLong();
+    private final AtomicLong totalHashNanos = new AtomicLong();
+    private final AtomicLong maxHashNanos = new AtomicLong();
+
+    /**
+     * Refus d'une connexion : trop de connexions simultanées pour l'adresse ou le compte
+     */
+    public static class LoginThrottledException extends RuntimeException {
+        public LoginThrottledException(String message) {
+            super(message);
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        int threads = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "login-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        logger.info("Vérification des connexions sur {} threads (file: {}, {} par IP, {} par compte)",
+                threads, queueCapacity, maxConcurrentPerAddress, maxConcurrentPerAccount);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Soumet une vérification d'identifiants
+     * @param username Nom d'utilisateur ou email saisi
+     * @param password Mot de passe saisi
+     * @param clientAddress Adresse IP du client ; derrière un proxy inverse, celle transmise par X-Forwarded-For
+     *                      (server.forward-headers-strategy), sans quoi tous les clients partageraient l'adresse du proxy
+     * @return L'authentification, ou un échec (AuthenticationException, RejectedExecutionException si l'attente a expiré)
+     * @throws LoginThrottledException si l'adresse ou le compte a déjà trop de connexions en cours
+     * @throws RejectedExecutionException si la file de vérification est pleine
+     */
+    public CompletableFuture<Authentication> authenticate(String username, String password, String clientAddress) {
+        String account = username.trim().toLowerCase(Locale.ROOT);
+        if (!acquire(inFlightByAddress, clientAddress, maxConcurrentPerAddress)) {
+            throttledCount.incrementAndGet();
+            throw new LoginThrottledException("Trop de connexions simultanées depuis cette adresse");
+        }
+        if (!acquire(inFlightByAccount, account, maxConcurrentPerAccount)) {
+            release(inFlightByAddress, clientAddress);
+            throttledCount.incrementAndGet();
+            throw new LoginThrottledException("Trop de connexions simultanées pour ce compte");
+        }
+
+        CompletableFuture<Authentication> result = new CompletableFuture<>();
+        long submittedAt = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                long startedAt = System.nanoTime();
+                long queueWait = startedAt - submittedAt;
+                totalQueueWaitNanos.addAndGet(queueWait);
+                maxQueueWaitNanos.accumulateAndGet(queueWait, Math::max);
+                Authentication authentication = null;
+                Exception failure = null;
+                try {
+                    if (queueWait > TimeUnit.MILLISECONDS.toNanos(maxQueueWaitMs)) {
+                        expiredCount.incrementAndGet();
+                        failure = new RejectedExecutionException(
+                                "Service d'authentification saturé, réessayez dans quelques instants");
+                    } else {
+                        authentication = authenticationManager.authenticate(
+                                new UsernamePasswordAuthenticationToken(username, password));
+                        completedCount.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    failedCount.incrementAndGet();
+                    failure = e;
+                } finally {
+                    long hashTime = System.nanoTime() - startedAt;
+                    totalHashNanos.addAndGet(hashTime);
+                    maxHashNanos.accumulateAndGet(hashTime, Math::max);
+                    release(inFlightByAccount, account);
+                    release(inFlightByAddress, clientAddress);
+                }
+                // Complété après la libération : la suite (jeton, statut en ligne) n'est pas comptée dans la vérification
+                if (failure != null) {
+                    result.completeExceptionally(failure);
+                } else {
+                    result.complete(authentication);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            release(inFlightByAccount, account);
+            release(inFlightByAddress, clientAddress);
+            rejectedCount.incrementAndGet();
+            throw new RejectedExecutionException("Service d'authentification saturé, réessayez dans quelques instants");
+        }
+        return result;
+    }
+
+    /**
+     * Compteurs du pool : files, refus, temps d'attente et de vérification
+     */
+    public Map<String, Object> getStats() {
+        long started = completedCount.get() + failedCount.get() + expiredCount.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("active", executor.getActiveCount());
+        stats.put("queued", executor.getQueue().size());
+        stats.put("completed", completedCount.get());
+        stats.put("failed", failedCount.get());
+        stats.put("rejected", rejectedCount.get());
+        stats.put("throttled", throttledCount.get());
+        stats.put("expired", expiredCount.get());
+        stats.put("avgQueueWaitMs", started > 0 ? totalQueueWaitNanos.get() / started / 1_000_000.0 : 0.0);
+        stats.put("maxQueueWaitMs", maxQueueWaitNanos.get() / 1_000_000.0);
+        stats.put("avgHashMs", started > 0 ? totalHashNanos.get() / started / 1_000_000.0 : 0.0);
+        stats.put("maxHashMs", maxHashNanos.get() / 1_000_000.0);
+        return stats;
+    }
+
+    private static boolean acquire(ConcurrentHashMap<String, Integer> inFlight, String key, int max) {
+        boolean[] acquired = new boolean[1];
+        inFlight.compute(key, (k, count) -> {
+            int current = count != null ? count : 0;
+            if (current >= max) {
+                return count;
+            }
+            acquired[0] = true;
+            return current + 1;
+        });
+        return acquired[0];
+    }
+
+    private static void release(ConcurrentHashMap<String, Integer> inFlight, String key) {
+        inFlight.computeIfPresent(key, (k, count) -> count > 1 ? count - 1 : null);
+    }
+}
@@ -0,0 +1,19 @@
+package com.securetalk.security.services;
+
+/**
+ * Publié après une modification d'un compte qui rend obsolètes les données d'authentification
+ * déjà chargées (cache des UserDetails, revendications des tokens émis)
+ * @param userId ID de l'utilisateur
+ * @param username Nom d'utilisateur
+ * @param email Email
+ * @param change Nature de la modification
+ */
+public record UserAccountChangedEvent(Long userId, String username, String email, Change change) {
+
+    public enum Change {
+        // Compte créé : un nom ou un email déjà vu peut désigner un nouvel utilisateur
+        CREATED,
+        PASSWORD,
+        ROLES
+    }
+}
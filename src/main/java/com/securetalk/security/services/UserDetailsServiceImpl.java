@@ -2,34 +2,115 @@ package com.securetalk.security.services;
 
 import com.securetalk.model.User;
 import com.securetalk.repository.UserRepository;
+import com.securetalk.util.BoundedCache;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chargement des utilisateurs pour l'authentification, derrière un cache borné indexé par email
+ * et par nom d'utilisateur. Les entrées d'un compte sont retirées dès la publication d'un
+ * {@link UserAccountChangedEvent}, après validation de la transaction qui l'a modifié.
+ */
 @Service
 public class UserDetailsServiceImpl implements UserDetailsService {
+    private static final Logger logger = LoggerFactory.getLogger(UserDetailsServiceImpl.class);
+
     @Autowired
     UserRepository userRepository;
 
+    @Value("${security.user-details-cache.max-size:10000}")
+    private int cacheMaxSize;
+
+    @Value("${security.user-details-cache.ttl-minutes:5}")
+    private long cacheTtlMinutes;
+
+    private BoundedCache<String, UserDetailsImpl> userDetailsCache;
+
+    // Incrémenté à chaque modification de compte : un chargement qui a commencé avant une modification
+    // peut avoir lu l'état précédent et n'est pas mis en cache
+    private final AtomicLong invalidationGeneration = new AtomicLong();
+
+    // La transaction n'est ouverte qu'en cas d'absence du cache (rôles chargés à la demande)
+    private final TransactionTemplate transactionTemplate;
+
+    public UserDetailsServiceImpl(PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    @PostConstruct
+    void init() {
+        userDetailsCache = new BoundedCache<>(cacheMaxSize, Duration.ofMinutes(cacheTtlMinutes));
+    }
+
     @Override
-    @Transactional
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
-        User user;
-        
-        // Vérifier si l'identifiant est au format email
-        if (username.contains("@")) {
-            // Rechercher par email
-            user = userRepository.findByEmail(username)
-                    .orElseThrow(() -> new UsernameNotFoundException("User Not Found with email: " + username));
-        } else {
-            // Rechercher par nom d'utilisateur
-            user = userRepository.findByUsername(username)
-                    .orElseThrow(() -> new UsernameNotFoundException("User Not Found with username: " + username));
+        UserDetailsImpl cached = userDetailsCache.get(username);
+        if (cached != null) {
+            return cached;
         }
 
-        return UserDetailsImpl.build(user);
+        long loadGeneration = invalidationGeneration.get();
+        UserDetailsImpl userDetails = transactionTemplate.execute(status -> {
+            User user;
+            
+            // Vérifier si l'identifiant est au format email
+            if (username.contains("@")) {
+                // Rechercher par email
+                user = userRepository.findByEmail(username)
+                        .orElseThrow(() -> new UsernameNotFoundException("User Not Found with email: " + username));
+            } else {
+                // Rechercher par nom d'utilisateur
+                user = userRepository.findByUsername(username)
+                        .orElseThrow(() -> new UsernameNotFoundException("User Not Found with username: " + username));
+            }
+
+            return UserDetailsImpl.build(user);
+        });
+
+        if (invalidationGeneration.get() != loadGeneration) {
+            return userDetails;
+        }
+        // Les deux identifiants de connexion désignent la même entrée
+        userDetailsCache.put(userDetails.getEmail(), userDetails);
+        userDetailsCache.put(userDetails.getUsername(), userDetails);
+        // Modification survenue pendant l'ajout : son retrait a pu précéder l'ajout
+        if (invalidationGeneration.get() != loadGeneration) {
+            userDetailsCache.invalidate(userDetails.getEmail());
+            userDetailsCache.invalidate(userDetails.getUsername());
+        }
+        return userDetails;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUserAccountChanged(UserAccountChangedEvent event) {
+        evict(event.username(), event.email());
+        logger.debug("Utilisateur {} retiré du cache d'authentification ({})", event.userId(), event.change());
+    }
+
+    /**
+     * Retire un compte du cache, par exemple après une modification faite sur une autre instance
+     */
+    public void evict(String username, String email) {
+        invalidationGeneration.incrementAndGet();
+        userDetailsCache.invalidate(email);
+        userDetailsCache.invalidate(username);
+    }
+
+    public BoundedCache.CacheStats getCacheStats() {
+        return userDetailsCache.stats();
     }
 }
@@ -0,0 +1,190 @@
+package com.securetalk.service;
+
+import com.securetalk.model.ConversationSummary;
+import com.securetalk.model.Message;
+import com.securetalk.model.User;
+import com.securetalk.repository.ConversationSummaryRepository;
+import com.securetalk.repository.MessageRepository;
+import com.securetalk.repository.ShardedMessageRepository;
+import com.securetalk.repository.UserRepository;
+import com.securetalk.util.IdGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maintient la table conversation_summary, qui sert la liste des conversations en une requête indexée.
+ *
+ * Les résumés sont mis à jour dans la transaction de l'envoi ou de la lecture des messages, par des
+ * requêtes UPDATE atomiques qui supportent les envois concurrents. La ligne d'un participant est d'abord
+ * créée si besoin par une insertion sans effet sur une ligne existante (INSERT ... ON DUPLICATE KEY UPDATE),
+ * dans la même transaction : une mise à jour préalable sur une ligne absente poserait sous MySQL un verrou
+ * d'intervalle que l'insertion depuis une autre connexion attendrait sans que l'interblocage soit détecté.
+ */
+@Service
+public class ConversationSummaryService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConversationSummaryService.class);
+
+    @Autowired
+    private ConversationSummaryRepository summaryRepository;
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired(required = false)
+    private ShardedMessageRepository shardedMessages;
+
+    @Autowired(required = false)
+    private MessageArchiver messageArchiver;
+
+    private static final Comparator<ConversationSummary> SUMMARY_LOCK_ORDER =
+            Comparator.comparing((ConversationSummary summary) -> summary.getOwner().getId())
+                    .thenComparing(summary -> summary.getPartner().getId());
+
+    @Autowired
+    private IdGenerator idGenerator;
+
+    /**
+     * Met à jour les résumés des deux participants après l'enregistrement d'un message
+     * @param message Message enregistré (ID attribué)
+     */
+    @Transactional
+    public void recordMessage(Message message) {
+        Long senderId = message.getSender().getId();
+        Long recipientId = message.getRecipient().getId();
+
+        // Lignes verrouillées dans l'ordre des propriétaires : deux envois croisés A→B et B→A ne s'interbloquent pas
+        if (senderId < recipientId) {
+            recordActivity(senderId, recipientId, message.getId(), message.getTimestamp(), 0);
+            recordActivity(recipientId, senderId, message.getId(), message.getTimestamp(), 1);
+        } else {
+            recordActivity(recipientId, senderId, message.getId(), message.getTimestamp(), 1);
+            recordActivity(senderId, recipientId, message.getId(), message.getTimestamp(), 0);
+        }
+    }
+
+    /**
+     * Met à jour les résumés pour un lot de messages, avec une seule mise à jour par ligne de résumé
+     * @param messages Messages enregistrés dans la transaction en cours
+     */
+    @Transactional
+    public void recordMessages(List<Message> messages) {
+        Map<String, ConversationSummary> updates = new HashMap<>();
+        for (Message message : messages) {
+            User sender = message.getSender();
+            User recipient = message.getRecipient();
+            mergeMessage(updates, sender, recipient, message, 0);
+            mergeMessage(updates, recipient, sender, message, 1);
+        }
+        // Même ordre de verrouillage que recordMessage, quel que soit l'ordre du lot
+        List<ConversationSummary> ordered = new ArrayList<>(updates.values());
+        ordered.sort(SUMMARY_LOCK_ORDER);
+        for (ConversationSummary update : ordered) {
+            recordActivity(update.getOwner().getId(), update.getPartner().getId(),
+                    update.getLastMessageId(), update.getLastActivity(), update.getUnreadCount());
+        }
+    }
+
+    private void mergeMessage(Map<String, ConversationSummary> updates, User owner, User partner,
+                              Message message, int unread) {
+        ConversationSummary update = updates.computeIfAbsent(owner.getId() + ">" + partner.getId(),
+                k -> new ConversationSummary(owner, partner));
+        if (update.getLastActivity() == null || !update.getLastActivity().isAfter(message.getTimestamp())) {
+            update.setLastActivity(message.getTimestamp());
+            update.setLastMessageId(message.getId());
+        }
+        update.setUnreadCount(update.getUnreadCount() + unread);
+    }
+
+    private void recordActivity(Long ownerId, Long partnerId, Long messageId, LocalDateTime timestamp, int unread) {
+        summaryRepository.insertIfAbsent(idGenerator.nextId(), ownerId, partnerId, Message.conversationKey(ownerId, partnerId));
+        summaryRepository.recordMessage(ownerId, partnerId, messageId, timestamp, unread);
+    }
+
+    /**
+     * Retire des messages lus du compteur de non lus de l'utilisateur
+     * @param ownerId Utilisateur qui a lu les messages
+     * @param partnerId Expéditeur des messages lus
+     * @param count Nombre de messages passés à l'état lu
+     */
+    @Transactional
+    public void markRead(Long ownerId, Long partnerId, int count) {
+        if (count > 0) {
+            summaryRepository.decrementUnread(ownerId, partnerId, count);
+        }
+    }
+
+    /**
+     * Messages non lus de l'utilisateur dans sa conversation avec un partenaire
+     */
+    @Transactional(readOnly = true)
+    public int getUnreadCount(Long ownerId, Long partnerId) {
+        return summaryRepository.findUnreadCount(ownerId, partnerId).orElse(0);
+    }
+
+    /**
+     * Conversations d'un utilisateur, de la plus récente à la plus ancienne, avec le partenaire chargé
+     */
+    @Transactional(readOnly = true)
+    public List<ConversationSummary> getSummaries(Long userId) {
+        return summaryRepository.findByOwnerIdOrderByLastActivityDesc(userId);
+    }
+
+    /**
+     * Reconstruit tous les résumés à partir de la table des messages et de l'archive
+     * @return Nombre de résumés créés
+     */
+    @Transactional
+    public int rebuild() {
+        long start = System.currentTimeMillis();
+        summaryRepository.deleteAllInBulk();
+
+        // Une ligne par participant : regrouper les deux sens de chaque conversation
+        Map<String, ConversationSummary> summaries = new HashMap<>();
+        List<Object[]> directions = new ArrayList<>(shardedMessages != null
+                ? shardedMessages.summarizeByDirection() : messageRepository.summarizeByDirection());
+        if (messageArchiver != null) {
+            directions.addAll(messageArchiver.summarizeByDirection());
+        }
+        for (Object[] row : directions) {
+            Long senderId = (Long) row[0];
+            Long recipientId = (Long) row[1];
+            Long lastMessageId = (Long) row[2];
+            LocalDateTime lastActivity = (LocalDateTime) row[3];
+            int unread = ((Number) row[4]).intValue();
+
+            mergeDirection(summaries, senderId, recipientId, lastMessageId, lastActivity, 0);
+            mergeDirection(summaries, recipientId, senderId, lastMessageId, lastActivity, unread);
+        }
+
+        List<ConversationSummary> rows = new ArrayList<>(summaries.values());
+        summaryRepository.saveAll(rows);
+        logger.info("Résumés de conversation reconstruits: {} lignes en {} ms",
+                rows.size(), System.currentTimeMillis() - start);
+        return rows.size();
+    }
+
+    private void mergeDirection(Map<String, ConversationSummary> summaries, Long ownerId, Long partnerId,
+                                Long lastMessageId, LocalDateTime lastActivity, int unread) {
+        ConversationSummary summary = summaries.computeIfAbsent(ownerId + ">" + partnerId, k ->
+                new ConversationSummary(userRepository.getReferenceById(ownerId), userRepository.getReferenceById(partnerId)));
+        if (summary.getLastActivity() == null || summary.getLastActivity().isBefore(lastActivity)) {
+            summary.setLastActivity(lastActivity);
+            summary.setLastMessageId(lastMessageId);
+        }
+        summary.setUnreadCount(summary.getUnreadCount() + unread);
+    }
+}
@@ -0,0 +1,354 @@
+package com.securetalk.service;
+
+import com.securetalk.model.Message;
+import com.securetalk.model.MessageStatus;
+import com.securetalk.repository.ConversationSummaryRepository;
+import com.securetalk.repository.MessageView;
+import com.securetalk.repository.ShardedMessageRepository;
+import com.securetalk.repository.ShardedMessageRepository.Shard;
+import com.securetalk.util.BoundedCache;
+import com.securetalk.util.EncryptionUtil;
+import com.securetalk.util.MessageArchive;
+import com.securetalk.util.MessageArchive.Position;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Déplace les messages plus anciens que messages.archive.max-age-days de la table messages vers
+ * l'archive compressée ({@link MessageArchive}), et sert les lectures d'historique au-delà des
+ * messages conservés en base.
+ *
+ * Chaque passe parcourt les conversations ayant des messages anciens et, par lots dans l'ordre
+ * (timestamp, id) : ajoute le lot à l'archive (écrit sur disque), puis le supprime de la table. Un arrêt
+ * entre les deux laisse des messages déjà archivés en base ; la passe suivante les reconnaît et
+ * les supprime sans les archiver une seconde fois.
+ *
+ * L'archive est en ajout seul : l'état d'un message archivé n'évolue plus. Un message encore non lu
+ * au moment de son archivage est retiré des compteurs de non lus.
+ *
+ * Avec plusieurs instances, messages.archive.directory doit être un volume partagé par toutes :
+ * chacune y lit l'historique archivé, mais une seule exécute la passe, celle qui obtient le verrou
+ * du fichier archiver.lock (verrou de fichier du système, à prendre en charge par le volume, NFSv4
+ * par exemple). Les autres ignorent la passe et retentent à l'intervalle suivant.
+ */
+@Service
+@ConditionalOnProperty(name = "messages.archive.enabled", havingValue = "true")
+public class MessageArchiver {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageArchiver.class);
+
+    private static final String LOCK_FILE = "archiver.lock";
+
+    // Position de départ du parcours d'une conversation, antérieure à tout message
+    private static final Timestamp ARCHIVE_CURSOR_START = Timestamp.valueOf("1970-01-01 00:00:00");
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    // Présent uniquement si des bases de répartition sont configurées : l'archivage porte alors sur elles
+    @Autowired(required = false)
+    private ShardedMessageRepository shardedMessages;
+
+    @Autowired
+    private ConversationSummaryRepository summaryRepository;
+
+    @Autowired
+    private UnreadCounterService unreadCounterService;
+
+    @Value("${messages.archive.directory:data/message-archive}")
+    private String directory;
+
+    @Value("${messages.archive.max-age-days:30}")
+    private int maxAgeDays;
+
+    @Value("${messages.archive.batch-size:1000}")
+    private int batchSize;
+
+    @Value("${messages.archive.block-size:128}")
+    private int blockSize;
+
+    @Value("${messages.archive.segment-bytes:67108864}")
+    private long segmentBytes;
+
+    @Value("${messages.archive.mapped-conversations:1000}")
+    private int mappedConversations;
+
+    private final TransactionTemplate primaryTransaction;
+
+    private MessageArchive archive;
+
+    private final AtomicLong archivedCount = new AtomicLong();
+    // Messages conservés en base lors de la dernière passe, plus anciens que la fin de l'archive de leur conversation
+    private final AtomicLong skippedCount = new AtomicLong();
+    private final AtomicLong archiveReads = new AtomicLong();
+
+    /**
+     * Table messages parcourue : la base principale, ou une base de répartition
+     */
+    private record Source(String name, NamedParameterJdbcTemplate jdbc, TransactionTemplate transaction) {
+    }
+
+    public MessageArchiver(PlatformTransactionManager transactionManager) {
+        this.primaryTransaction = new TransactionTemplate(transactionManager);
+    }
+
+    @PostConstruct
+    void init() throws IOException {
+        archive = new MessageArchive(Paths.get(directory), blockSize, segmentBytes, mappedConversations, Duration.ofMinutes(10));
+        logger.info("Archivage des messages de plus de {} jours activé (répertoire: {})", maxAgeDays, directory);
+    }
+
+    @Scheduled(initialDelayString = "${messages.archive.initial-delay-ms:60000}",
+               fixedDelayString = "${messages.archive.interval-ms:3600000}")
+    public void archiveOldMessages() {
+        Path lockPath = Paths.get(directory).resolve(LOCK_FILE);
+        try (FileChannel channel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = channel.tryLock()) {
+            if (lock == null) {
+                logger.debug("Archivage ignoré: une autre instance détient le verrou {}", lockPath);
+                return;
+            }
+            archiveWithLock();
+        } catch (IOException | OverlappingFileLockException e) {
+            logger.warn("Verrou d'archivage {} indisponible, passe ignorée: {}", lockPath, e.getMessage());
+        }
+    }
+
+    private void archiveWithLock() {
+        long start = System.currentTimeMillis();
+        LocalDateTime cutoff = LocalDateTime.now().minusDays(maxAgeDays);
+        long before = archivedCount.get();
+
+        List<Source> sources = new ArrayList<>();
+        if (shardedMessages != null) {
+            for (Shard shard : shardedMessages.getShards()) {
+                sources.add(new Source(shard.name(), shard.jdbc(), shard.transactionTemplate()));
+            }
+        } else {
+            sources.add(new Source("principale", new NamedParameterJdbcTemplate(jdbcTemplate), primaryTransaction));
+        }
+
+        long skipped = 0;
+        for (Source source : sources) {
+            try {
+                skipped += archiveSource(source, cutoff);
+            } catch (Exception e) {
+                logger.error("Archivage des messages de la base {} interrompu: {}", source.name(), e.getMessage());
+            }
+        }
+        skippedCount.set(skipped);
+
+        long archived = archivedCount.get() - before;
+        if (archived > 0) {
+            logger.info("Archivage terminé: {} messages antérieurs au {} archivés en {} ms",
+                    archived, cutoff, System.currentTimeMillis() - start);
+        }
+    }
+
+    private int archiveSource(Source source, LocalDateTime cutoff) throws IOException {
+        int skipped = 0;
+        String afterKey = "";
+        List<String> keys;
+        do {
+            keys = source.jdbc().getJdbcOperations().queryForList(
+                    "SELECT DISTINCT conversation_key FROM messages WHERE conversation_key > ? AND timestamp < ? " +
+                    "ORDER BY conversation_key LIMIT ?", String.class, afterKey, Timestamp.valueOf(cutoff), batchSize);
+            for (String key : keys) {
+                skipped += archiveConversation(source, key, cutoff);
+            }
+            if (!keys.isEmpty()) {
+                afterKey = keys.get(keys.size() - 1);
+            }
+        } while (keys.size() == batchSize);
+        return skipped;
+    }
+
+    /**
+     * Archive les messages anciens d'une conversation, par lots parcourus dans l'ordre (timestamp, id).
+     * Le curseur avance au-delà des messages conservés en base : ils ne sont lus qu'une fois par passe
+     * et ne bloquent pas l'archivage des messages qui les suivent.
+     * @return Nombre de messages conservés en base car plus anciens que la fin de l'archive
+     */
+    private int archiveConversation(Source source, String conversationKey, LocalDateTime cutoff) throws IOException {
+        int skipped = 0;
+        Timestamp afterTimestamp = ARCHIVE_CURSOR_START;
+        long afterId = Long.MIN_VALUE;
+        List<Message> batch;
+        do {
+            batch = source.jdbc().getJdbcOperations().query("SELECT " + ShardedMessageRepository.COLUMNS +
+                    " FROM messages WHERE conversation_key = ? AND timestamp < ? " +
+                    "AND (timestamp > ? OR (timestamp = ? AND id > ?)) ORDER BY timestamp, id LIMIT ?",
+                    ShardedMessageRepository.MESSAGE_MAPPER, conversationKey, Timestamp.valueOf(cutoff),
+                    afterTimestamp, afterTimestamp, afterId, batchSize);
+            if (batch.isEmpty()) {
+                break;
+            }
+            Message lastRead = batch.get(batch.size() - 1);
+            afterTimestamp = Timestamp.valueOf(lastRead.getTimestamp());
+            afterId = lastRead.getId();
+
+            Position last = archive.lastPosition(conversationKey);
+            List<Message> toArchive = new ArrayList<>(batch.size());
+            List<Message> removed = new ArrayList<>(batch.size());
+            for (Message message : batch) {
+                if (last == null || isAfter(message, last)) {
+                    toArchive.add(message);
+                    removed.add(message);
+                } else if (archive.find(conversationKey, message.getId()).isPresent()) {
+                    // Archivé lors d'une passe interrompue avant la suppression
+                    removed.add(message);
+                } else {
+                    // Inséré après l'archivage de messages plus récents : reste en base
+                    skipped++;
+                }
+            }
+            if (removed.isEmpty()) {
+                continue;
+            }
+
+            archive.append(conversationKey, toArchive);
+            List<Long> ids = removed.stream().map(Message::getId).toList();
+            source.transaction().executeWithoutResult(status -> source.jdbc().update(
+                    "DELETE FROM messages WHERE id IN (:ids)", Map.of("ids", ids)));
+            releaseUnread(removed);
+            archivedCount.addAndGet(toArchive.size());
+        } while (batch.size() == batchSize);
+
+        if (skipped > 0) {
+            logger.warn("{} messages plus anciens que l'archive de la conversation {}, conservés en base",
+                    skipped, conversationKey);
+        }
+        return skipped;
+    }
+
+    /**
+     * Retire des résumés et des compteurs les messages archivés sans avoir été lus
+     */
+    private void releaseUnread(List<Message> removed) {
+        // Propriétaire puis partenaire : même ordre de verrouillage des résumés que ConversationSummaryService
+        Map<List<Long>, Integer> unreadByDirection = new TreeMap<>(
+                Comparator.comparing((List<Long> direction) -> direction.get(0)).thenComparing(direction -> direction.get(1)));
+        for (Message message : removed) {
+            if (message.getStatus() != MessageStatus.READ) {
+                unreadByDirection.merge(List.of(message.getRecipient().getId(), message.getSender().getId()), 1, Integer::sum);
+            }
+        }
+        if (unreadByDirection.isEmpty()) {
+            return;
+        }
+        primaryTransaction.executeWithoutResult(status -> unreadByDirection.forEach((direction, count) -> {
+            summaryRepository.decrementUnread(direction.get(0), direction.get(1), count);
+            unreadCounterService.decrement(direction.get(0), count);
+        }));
+    }
+
+    /**
+     * Messages archivés antérieurs à une position, du plus récent au plus ancien
+     * @param before Position exclue, ou null pour partir du dernier message archivé
+     */
+    public List<MessageView> findConversationBefore(String conversationKey, Long userId, Position before, int limit) {
+        archiveReads.incrementAndGet();
+        return toViews(archive.readBefore(conversationKey, before, limit), userId);
+    }
+
+    /**
+     * Messages archivés postérieurs à une position, du plus ancien au plus récent ; vide si la position
+     * suit le dernier message archivé
+     */
+    public List<MessageView> findConversationAfter(String conversationKey, Long userId, Position after, int limit) {
+        Position last = archive.lastPosition(conversationKey);
+        if (last == null || !isBefore(after, last)) {
+            return List.of();
+        }
+        archiveReads.incrementAndGet();
+        return toViews(archive.readAfter(conversationKey, after, limit), userId);
+    }
+
+    public Optional<Message> findMessage(String conversationKey, Long messageId) {
+        archiveReads.incrementAndGet();
+        return archive.find(conversationKey, messageId);
+    }
+
+    /**
+     * Agrégats par sens de conversation des messages archivés, comme MessageRepository.summarizeByDirection ;
+     * les messages archivés ne comptent pas comme non lus. Parcourt toute l'archive.
+     */
+    public List<Object[]> summarizeByDirection() {
+        Map<List<Long>, Object[]> directions = new HashMap<>();
+        try {
+            archive.forEachConversation(messages -> {
+                for (Message message : messages) {
+                    Object[] row = directions.computeIfAbsent(
+                            List.of(message.getSender().getId(), message.getRecipient().getId()),
+                            k -> new Object[] {k.get(0), k.get(1), message.getId(), message.getTimestamp(), 0L});
+                    // Messages lus dans l'ordre (timestamp, id) : le dernier vu est le plus récent
+                    row[2] = message.getId();
+                    row[3] = message.getTimestamp();
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException("Lecture de l'archive des messages impossible", e);
+        }
+        return new ArrayList<>(directions.values());
+    }
+
+    public long getArchivedCount() {
+        return archivedCount.get();
+    }
+
+    public long getSkippedCount() {
+        return skippedCount.get();
+    }
+
+    public long getArchiveReads() {
+        return archiveReads.get();
+    }
+
+    public BoundedCache.CacheStats getMappedConversationStats() {
+        return archive.getMappedConversationStats();
+    }
+
+    private static List<MessageView> toViews(List<Message> messages, Long userId) {
+        return messages.stream().map(message -> EncryptionUtil.viewOf(message, userId)).toList();
+    }
+
+    private static boolean isAfter(Message message, Position position) {
+        int byTime = message.getTimestamp().compareTo(position.timestamp());
+        return byTime > 0 || (byTime == 0 && message.getId() > position.id());
+    }
+
+    private static boolean isBefore(Position a, Position b) {
+        int byTime = a.timestamp().compareTo(b.timestamp());
+        return byTime < 0 || (byTime == 0 && a.id() < b.id());
+    }
+}
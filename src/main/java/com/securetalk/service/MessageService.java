@@ -1,40 +1,100 @@
 package com.securetalk.service;
 
+import com.securetalk.config.ReplicaRoutingDataSource;
+import com.securetalk.model.ConversationSummary;
 import com.securetalk.model.Message;
-import com.securetalk.model.MessageStatus;
 import com.securetalk.model.User;
 import com.securetalk.repository.MessageRepository;
+import com.securetalk.repository.MessageView;
+import com.securetalk.repository.ShardedMessageRepository;
 import com.securetalk.repository.UserRepository;
 import com.securetalk.util.EncryptionUtil;
+import com.securetalk.util.IdGenerator;
+import com.securetalk.util.MessageArchive.Position;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @Service
 public class MessageService {
 
+    // Ordre chronologique des messages d'une conversation
+    private static final Comparator<MessageView> PAGE_ORDER =
+            Comparator.comparing(MessageView::getTimestamp).thenComparing(MessageView::getId);
+
     /**
      * Marque tous les messages reçus non lus d'une conversation comme lus pour un utilisateur
      * @param conversationId L'ID de l'utilisateur partenaire (autre participant de la conversation)
      * @param userId L'ID de l'utilisateur connecté
+     * @return L'accusé de lecture à transmettre au partenaire, ou null si aucun message n'était non lu
      */
     @Transactional
-    public void markConversationAsRead(Long conversationId, Long userId) {
+    public ReadUpdate markConversationAsRead(Long conversationId, Long userId) {
         User currentUser = userRepository.findById(userId)
             .orElseThrow(() -> new NoSuchElementException("Utilisateur non trouvé"));
         User partner = userRepository.findById(conversationId)
             .orElseThrow(() -> new NoSuchElementException("Partenaire de conversation non trouvé"));
-        List<Message> messages = messageRepository.findConversation(partner, currentUser);
-        messages.stream()
-            .filter(m -> m.getRecipient().getId().equals(userId) && m.getStatus() != MessageStatus.READ)
-            .forEach(m -> {
-                m.setStatus(MessageStatus.READ);
-                messageRepository.save(m);
-            });
+        return markReceivedAsRead(currentUser.getId(), partner.getId());
+    }
+
+    /**
+     * Marque un message reçu comme lu, ainsi que les messages reçus qui le précèdent dans la conversation
+     * @param messageId L'ID du message lu
+     * @param userId L'ID de l'utilisateur connecté, destinataire du message
+     * @return L'accusé de lecture à transmettre à l'expéditeur, ou null si rien n'a changé
+     */
+    @Transactional
+    public ReadUpdate markMessageAsRead(Long messageId, Long userId) {
+        Message message = findMessage(messageId)
+            .orElseThrow(() -> new NoSuchElementException("Message non trouvé"));
+        if (!message.getRecipient().getId().equals(userId)) {
+            throw new SecurityException("Seul le destinataire peut marquer ce message comme lu");
+        }
+        return markReceivedAsRead(userId, message.getSender().getId(), messageId);
+    }
+
+    /**
+     * Passe à l'état lu, en une seule requête, les messages reçus jusqu'au dernier message
+     * actuellement présent ; un message arrivé pendant l'opération reste non lu.
+     */
+    private ReadUpdate markReceivedAsRead(Long readerId, Long partnerId) {
+        String conversationKey = Message.conversationKey(readerId, partnerId);
+        Long lastReceivedId = shardedMessages != null
+                ? shardedMessages.findLastReceivedId(conversationKey, readerId)
+                : messageRepository.findLastReceivedId(conversationKey, readerId);
+        if (lastReceivedId == null) {
+            return null;
+        }
+        return markReceivedAsRead(readerId, partnerId, lastReceivedId);
+    }
+
+    private ReadUpdate markReceivedAsRead(Long readerId, Long partnerId, Long upToMessageId) {
+        String conversationKey = Message.conversationKey(readerId, partnerId);
+        int count = shardedMessages != null
+                ? shardedMessages.markReadUpTo(conversationKey, readerId, upToMessageId)
+                : messageRepository.markReadUpTo(conversationKey, readerId, upToMessageId);
+        if (count == 0) {
+            return null;
+        }
+        recordWrite();
+        conversationSummaryService.markRead(readerId, partnerId, count);
+        unreadCounterService.decrement(readerId, count);
+        return new ReadUpdate(readerId, partnerId, upToMessageId, count);
     }
 
     
@@ -47,8 +107,39 @@ public class MessageService {
     @Autowired
     private EncryptionUtil encryptionUtil;
     
+    @Autowired
+    private ConversationSummaryService conversationSummaryService;
+    
+    @Autowired
+    private UnreadCounterService unreadCounterService;
+    
+    @Autowired
+    private IdGenerator idGenerator;
+    
+    // Présent uniquement avec messages.persistence.mode=write-behind
+    @Autowired(required = false)
+    private MessageWriteBehind messageWriteBehind;
+    
+    // Présent uniquement si des bases de répartition sont configurées (securetalk.sharding.shard-urls)
+    @Autowired(required = false)
+    private ShardedMessageRepository shardedMessages;
+    
+    // Présent uniquement avec messages.archive.enabled=true : l'historique ancien est lu dans l'archive
+    @Autowired(required = false)
+    private MessageArchiver messageArchiver;
+    
+    // Présent uniquement si des répliques en lecture sont configurées (securetalk.datasource.replica.urls)
+    @Autowired(required = false)
+    private ReplicaRoutingDataSource replicaRoutingDataSource;
+    
+    @Value("${messages.conversation.default-page-size:50}")
+    private int defaultPageSize;
+    
+    @Value("${messages.conversation.max-page-size:200}")
+    private int maxPageSize;
+    
      /**
-     * Envoie un message d'un utilisateur à un autre avec double chiffrement
+     * Envoie un message d'un utilisateur à un autre avec chiffrement en enveloppe
      * 
      * @param senderId ID de l'expéditeur
      * @param recipientId ID du destinataire
@@ -57,50 +148,204 @@ public class MessageService {
      */
     @Transactional
     public Message sendMessage(Long senderId, Long recipientId, String content) {
+        if (messageWriteBehind != null) {
+            return submitMessage(senderId, recipientId, content);
+        }
+        
         User sender = userRepository.findById(senderId)
                 .orElseThrow(() -> new NoSuchElementException("Expéditeur non trouvé"));
         
         User recipient = userRepository.findById(recipientId)
                 .orElseThrow(() -> new NoSuchElementException("Destinataire non trouvé"));
         
-        // Chiffrer le contenu du message pour les deux parties
-        String[] encryptionResult = encryptionUtil.encryptMessageForBoth(content, senderId, recipientId);
-        String encryptedForRecipient = encryptionResult[0];
-        String ivRecipient = encryptionResult[1];
-        String encryptedForSender = encryptionResult[2];
-        String ivSender = encryptionResult[3];
+        // Chiffrer le contenu une seule fois, puis la clé de données pour chaque partie
+        byte[] payload = encryptionUtil.encryptMessagePayload(content, senderId, recipientId);
         
-        Message message = new Message(sender, recipient, encryptedForRecipient, ivRecipient, 
-                                     encryptedForSender, ivSender);
-        return messageRepository.save(message);
+        Message message = new Message(sender, recipient, payload);
+        if (shardedMessages != null) {
+            message.setId(idGenerator.nextId());
+            shardedMessages.insert(message);
+        } else {
+            message = messageRepository.save(message);
+        }
+        conversationSummaryService.recordMessage(message);
+        unreadCounterService.increment(recipientId, 1);
+        recordWrite();
+        return message;
+    }
+    
+    /**
+     * Envoi en écriture différée : le message est chiffré, identifié et journalisé, sans attendre la base.
+     * L'expéditeur est l'utilisateur authentifié ; seule l'existence du destinataire est vérifiée.
+     */
+    private Message submitMessage(Long senderId, Long recipientId, String content) {
+        if (!userRepository.existsById(recipientId)) {
+            throw new NoSuchElementException("Destinataire non trouvé");
+        }
+        
+        byte[] payload = encryptionUtil.encryptMessagePayload(content, senderId, recipientId);
+        Message message = new Message(userRepository.getReferenceById(senderId),
+                userRepository.getReferenceById(recipientId), payload);
+        message.setId(idGenerator.nextId());
+        messageWriteBehind.submit(message);
+        return message;
     }
     
     /**
-     * Récupère la conversation entre deux utilisateurs
+     * Indique si l'utilisateur a des messages non lus de ce partenaire, d'après son résumé de conversation.
+     * Lecture seule : évite d'ouvrir une transaction en écriture pour marquer comme lue une conversation
+     * déjà lue.
+     */
+    @Transactional(readOnly = true)
+    public boolean hasUnreadFrom(Long userId, Long partnerId) {
+        return conversationSummaryService.getUnreadCount(userId, partnerId) > 0;
+    }
+    
+    /**
+     * Récupère une page de la conversation entre deux utilisateurs par pagination à curseur.
+     * Le curseur est l'ID d'un message déjà affiché ; la page est délimitée par sa position
+     * (timestamp, id), ce qui garde un coût constant quelle que soit la longueur de l'historique.
      * 
-     * @param userId1 ID du premier utilisateur
-     * @param userId2 ID du deuxième utilisateur
-     * @return Liste des messages échangés entre les deux utilisateurs
+     * @param userId1 ID de l'utilisateur courant
+     * @param userId2 ID du partenaire de conversation
+     * @param beforeId Messages antérieurs à ce message (historique), ou null
+     * @param afterId Messages postérieurs à ce message (nouveaux messages), ou null
+     * @param limit Nombre maximal de messages, borné par messages.conversation.max-page-size
+     * @return Page de projections dans l'ordre chronologique, avec les données chiffrées de userId1
      */
     @Transactional(readOnly = true)
-    public List<Message> getConversation(Long userId1, Long userId2) {
-        User user1 = userRepository.findById(userId1)
-                .orElseThrow(() -> new NoSuchElementException("Utilisateur 1 non trouvé"));
+    public MessagePage getConversationPage(Long userId1, Long userId2, Long beforeId, Long afterId, Integer limit) {
+        if (beforeId != null && afterId != null) {
+            throw new IllegalArgumentException("Les paramètres before et after ne peuvent pas être combinés");
+        }
+        int pageSize = limit == null ? defaultPageSize : Math.max(1, Math.min(limit, maxPageSize));
         
-        User user2 = userRepository.findById(userId2)
-                .orElseThrow(() -> new NoSuchElementException("Utilisateur 2 non trouvé"));
+        // Existence seule : les entités User ne sont pas chargées pour lire une conversation
+        if (!userRepository.existsById(userId1)) {
+            throw new NoSuchElementException("Utilisateur 1 non trouvé");
+        }
+        if (!userRepository.existsById(userId2)) {
+            throw new NoSuchElementException("Utilisateur 2 non trouvé");
+        }
         
-        List<Message> messages = messageRepository.findConversation(user1, user2);
+        // Un message de plus que demandé indique s'il reste des messages au-delà de la page
+        int fetchSize = pageSize + 1;
+        String conversationKey = Message.conversationKey(userId1, userId2);
+        List<MessageView> messages;
+        if (afterId != null) {
+            Message cursor = getCursorMessage(afterId, conversationKey, userId1, userId2);
+            List<MessageView> archived = messageArchiver != null
+                    // Curseur dans l'historique archivé : la page commence dans l'archive
+                    ? messageArchiver.findConversationAfter(conversationKey, userId1,
+                            new Position(cursor.getTimestamp(), cursor.getId()), fetchSize)
+                    : List.of();
+            messages = archived;
+            if (archived.size() < fetchSize) {
+                // Page entière lue en base : les messages archivés pas encore supprimés y figurent encore
+                List<MessageView> stored = shardedMessages != null
+                        ? shardedMessages.findConversationAfter(conversationKey, userId1, cursor.getTimestamp(), cursor.getId(), fetchSize)
+                        : messageRepository.findConversationAfter(conversationKey, userId1, cursor.getTimestamp(), cursor.getId(), PageRequest.of(0, fetchSize));
+                messages = mergePage(archived, stored, PAGE_ORDER, fetchSize);
+            }
+        } else if (beforeId != null) {
+            Message cursor = getCursorMessage(beforeId, conversationKey, userId1, userId2);
+            messages = shardedMessages != null
+                    ? shardedMessages.findConversationBefore(conversationKey, userId1, cursor.getTimestamp(), cursor.getId(), fetchSize)
+                    : messageRepository.findConversationBefore(conversationKey, userId1, cursor.getTimestamp(), cursor.getId(), PageRequest.of(0, fetchSize));
+            messages = completeFromArchive(messages, conversationKey, userId1, new Position(cursor.getTimestamp(), cursor.getId()), fetchSize);
+        } else {
+            messages = shardedMessages != null
+                    ? shardedMessages.findConversationLatest(conversationKey, userId1, fetchSize)
+                    : messageRepository.findConversationLatest(conversationKey, userId1, PageRequest.of(0, fetchSize));
+            messages = completeFromArchive(messages, conversationKey, userId1, null, fetchSize);
+        }
         
-        // Marquer les messages reçus comme lus
-        messages.stream()
-                .filter(m -> m.getRecipient().getId().equals(userId1) && m.getStatus() != MessageStatus.READ)
-                .forEach(m -> {
-                    m.setStatus(MessageStatus.READ);
-                    messageRepository.save(m);
-                });
+        boolean hasMore = messages.size() > pageSize;
+        List<MessageView> page = new ArrayList<>(hasMore ? messages.subList(0, pageSize) : messages);
+        if (afterId == null) {
+            // Les pages vers l'historique sont lues du plus récent au plus ancien
+            Collections.reverse(page);
+        }
         
-        return messages;
+        return new MessagePage(page, hasMore);
+    }
+    
+    /**
+     * Complète une page lue vers l'historique (du plus récent au plus ancien) par les messages archivés
+     * qui précèdent le plus ancien message de la page, ou le curseur si la page est vide
+     */
+    private List<MessageView> completeFromArchive(List<MessageView> messages, String conversationKey, Long userId,
+                                                  Position cursor, int fetchSize) {
+        if (messageArchiver == null || messages.size() >= fetchSize) {
+            return messages;
+        }
+        Position before = cursor;
+        if (!messages.isEmpty()) {
+            MessageView oldest = messages.get(messages.size() - 1);
+            before = new Position(oldest.getTimestamp(), oldest.getId());
+        }
+        return mergePage(messages,
+                messageArchiver.findConversationBefore(conversationKey, userId, before, fetchSize - messages.size()),
+                PAGE_ORDER.reversed(), fetchSize);
+    }
+    
+    /**
+     * Fusionne une lecture en base et une lecture de l'archive. Un lot archivé reste en base jusqu'à sa
+     * suppression : un message présent des deux côtés n'apparaît qu'une fois.
+     */
+    private static List<MessageView> mergePage(List<MessageView> first, List<MessageView> second,
+                                               Comparator<MessageView> order, int limit) {
+        Map<Long, MessageView> byId = new LinkedHashMap<>();
+        first.forEach(message -> byId.putIfAbsent(message.getId(), message));
+        second.forEach(message -> byId.putIfAbsent(message.getId(), message));
+        return byId.values().stream().sorted(order).limit(limit).collect(Collectors.toList());
+    }
+    
+    /**
+     * Résout un curseur de pagination en vérifiant qu'il appartient bien à la conversation
+     */
+    private Message getCursorMessage(Long messageId, String conversationKey, Long userId1, Long userId2) {
+        Optional<Message> found = findMessage(messageId);
+        if (found.isEmpty() && messageArchiver != null) {
+            found = messageArchiver.findMessage(conversationKey, messageId);
+        }
+        Message cursor = found
+                .orElseThrow(() -> new NoSuchElementException("Message de référence non trouvé"));
+        Long senderId = cursor.getSender().getId();
+        Long recipientId = cursor.getRecipient().getId();
+        boolean inConversation = (senderId.equals(userId1) && recipientId.equals(userId2))
+                || (senderId.equals(userId2) && recipientId.equals(userId1));
+        if (!inConversation) {
+            throw new IllegalArgumentException("Le message de référence n'appartient pas à cette conversation");
+        }
+        return cursor;
+    }
+    
+    /**
+     * Lectures de l'utilisateur servies par la primaire après validation de la transaction en cours
+     */
+    private void recordWrite() {
+        if (replicaRoutingDataSource != null) {
+            replicaRoutingDataSource.recordWrite();
+        }
+    }
+    
+    /**
+     * Page de messages d'une conversation
+     * @param messages Projections des messages dans l'ordre chronologique
+     * @param hasMore Indique s'il reste des messages au-delà de la page dans le sens parcouru
+     */
+    public record MessagePage(List<MessageView> messages, boolean hasMore) {
+    }
+    
+    /**
+     * Résultat d'un marquage de messages comme lus
+     * @param readerId Utilisateur qui a lu les messages
+     * @param partnerId Expéditeur des messages lus
+     * @param lastReadMessageId Tous les messages reçus jusqu'à cet ID sont lus
+     * @param count Nombre de messages passés à l'état lu
+     */
+    public record ReadUpdate(Long readerId, Long partnerId, Long lastReadMessageId, int count) {
     }
     
     /**
@@ -126,17 +371,102 @@ public class MessageService {
     }
     
     /**
-     * Récupère tous les utilisateurs avec qui l'utilisateur courant a échangé des messages
+     * Déchiffre un lot de messages pour un utilisateur en une seule opération
+     * (clé résolue une fois, exécution parallèle pour les longs historiques)
+     * 
+     * @param messages Les messages à déchiffrer
+     * @param userId L'ID de l'utilisateur qui souhaite lire les messages
+     * @return Les contenus déchiffrés, dans l'ordre des messages
+     */
+    public List<String> decryptMessagesForUser(List<Message> messages, Long userId) {
+        try {
+            return encryptionUtil.decryptMessagesForUser(messages, userId);
+        } catch (SecurityException e) {
+            // Re-lancer les exceptions de sécurité
+            throw e;
+        } catch (Exception e) {
+            // Repli message par message pour isoler l'erreur
+            System.err.println("Erreur lors du déchiffrement groupé pour l'utilisateur " + userId + ": " + e.getMessage());
+            return messages.stream()
+                    .map(message -> safeDecryptMessage(message, userId))
+                    .collect(Collectors.toList());
+        }
+    }
+    
+    /**
+     * Déchiffre un lot de projections de messages lues pour un utilisateur
+     * 
+     * @param views Les projections à déchiffrer
+     * @param userId L'ID de l'utilisateur pour lequel les projections ont été lues
+     * @return Les contenus déchiffrés, dans l'ordre des projections
+     */
+    public List<String> decryptMessageViewsForUser(List<MessageView> views, Long userId) {
+        try {
+            return encryptionUtil.decryptMessageViewsForUser(views, userId);
+        } catch (SecurityException e) {
+            throw e;
+        } catch (Exception e) {
+            System.err.println("Erreur lors du déchiffrement groupé pour l'utilisateur " + userId + ": " + e.getMessage());
+            return Collections.nCopies(views.size(), "[Message non déchiffrable]");
+        }
+    }
+    
+    /**
+     * Résumés des conversations d'un utilisateur, de la plus récente à la plus ancienne
      * 
      * @param userId ID de l'utilisateur
-     * @return Liste des utilisateurs avec qui l'utilisateur a échangé des messages
+     * @return Résumés avec le partenaire de conversation chargé
+     */
+    public List<ConversationSummary> getConversationSummaries(Long userId) {
+        return conversationSummaryService.getSummaries(userId);
+    }
+    
+    /**
+     * Charge un ensemble de messages en une seule requête
+     * 
+     * @param messageIds IDs des messages
+     * @return Messages trouvés, dans un ordre quelconque
      */
     @Transactional(readOnly = true)
-    public List<User> getUserConversations(Long userId) {
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new NoSuchElementException("Utilisateur non trouvé"));
-        
-        return messageRepository.findConversationPartners(user);
+    public List<Message> getMessagesByIds(Collection<Long> messageIds) {
+        if (messageIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return shardedMessages != null ? shardedMessages.findAllById(messageIds) : messageRepository.findAllById(messageIds);
+    }
+    
+    /**
+     * Charge les derniers messages des résumés de conversation, y compris ceux déjà archivés
+     * 
+     * @param summaries Résumés de conversation
+     * @return Messages trouvés, dans un ordre quelconque
+     */
+    @Transactional(readOnly = true)
+    public List<Message> getLastMessages(List<ConversationSummary> summaries) {
+        List<Message> messages = getMessagesByIds(summaries.stream()
+                .map(ConversationSummary::getLastMessageId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList()));
+        if (messageArchiver == null || messages.size() == summaries.size()) {
+            return messages;
+        }
+        // Conversation inactive depuis plus longtemps que la durée de conservation en base
+        Set<Long> found = messages.stream().map(Message::getId).collect(Collectors.toSet());
+        List<Message> result = new ArrayList<>(messages);
+        for (ConversationSummary summary : summaries) {
+            Long lastMessageId = summary.getLastMessageId();
+            if (lastMessageId != null && !found.contains(lastMessageId)) {
+                messageArchiver.findMessage(summary.getConversationKey(), lastMessageId).ifPresent(result::add);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Recherche un message par son seul ID (toutes les bases de répartition si besoin)
+     */
+    private Optional<Message> findMessage(Long messageId) {
+        return shardedMessages != null ? shardedMessages.findById(messageId) : messageRepository.findById(messageId);
     }
 
     /**
@@ -0,0 +1,135 @@
+package com.securetalk.service;
+
+import com.securetalk.model.Message;
+import com.securetalk.repository.MessageRepository;
+import com.securetalk.util.EncryptionUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Convertit en arrière-plan les messages stockés en Base64 (formats 1 et 2)
+ * vers le format binaire empaqueté, par lots et dans une transaction par lot.
+ *
+ * Les nouveaux messages étant écrits directement au format 3, une passe complète suffit :
+ * le migrateur s'arrête ensuite. Les messages impossibles à convertir (clé manquante,
+ * données altérées) sont ignorés et restent lisibles dans leur format d'origine.
+ */
+@Component
+@ConditionalOnProperty(name = "messages.storage.migration.enabled", havingValue = "true", matchIfMissing = true)
+public class MessageStorageMigrator {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageStorageMigrator.class);
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Autowired
+    private EncryptionUtil encryptionUtil;
+
+    @Value("${messages.storage.migration.batch-size:500}")
+    private int batchSize;
+
+    @Value("${messages.storage.migration.max-batches-per-run:20}")
+    private int maxBatchesPerRun;
+
+    private final TransactionTemplate transactionTemplate;
+
+    // Curseur de la passe en cours : les lots sont parcourus par ID croissant, dernier lot validé
+    private long lastMigratedId = 0;
+    private volatile boolean completed = false;
+
+    private final AtomicLong migratedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    public MessageStorageMigrator(PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Scheduled(initialDelayString = "${messages.storage.migration.initial-delay-ms:30000}",
+               fixedDelayString = "${messages.storage.migration.interval-ms:5000}")
+    public void migrate() {
+        if (completed) {
+            return;
+        }
+
+        // Nombre de lots borné par exécution : le thread du planificateur reste disponible pour les autres tâches
+        for (int i = 0; i < maxBatchesPerRun; i++) {
+            BatchResult result;
+            try {
+                result = transactionTemplate.execute(status -> migrateBatch(lastMigratedId));
+            } catch (RuntimeException e) {
+                // Lot annulé : le curseur n'a pas avancé, le lot est repris à la prochaine exécution
+                logger.warn("Lot de conversion après l'ID {} annulé, nouvel essai plus tard: {}", lastMigratedId, e.getMessage());
+                return;
+            }
+
+            // Le curseur et les compteurs n'avancent qu'une fois le lot validé
+            lastMigratedId = result.lastId();
+            migratedCount.addAndGet(result.migrated());
+            failedCount.addAndGet(result.failed());
+            if (result.fetched() < batchSize) {
+                completed = true;
+                logger.info("Migration du stockage des messages terminée: {} convertis, {} ignorés",
+                        migratedCount.get(), failedCount.get());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Résultat d'un lot : messages lus, dernier ID lu et nombre de conversions réussies ou ignorées
+     */
+    private record BatchResult(int fetched, long lastId, int migrated, int failed) {
+    }
+
+    /**
+     * Convertit un lot de messages ; les modifications sont écrites à la validation de la transaction
+     * @param afterId Dernier ID du lot précédent validé
+     */
+    private BatchResult migrateBatch(long afterId) {
+        List<Message> batch = messageRepository.findByFormatVersionBelow(
+                Message.FORMAT_PACKED, afterId, PageRequest.of(0, batchSize));
+
+        long lastId = afterId;
+        int migrated = 0;
+        int failed = 0;
+        for (Message message : batch) {
+            lastId = message.getId();
+            try {
+                message.convertToPackedFormat(encryptionUtil.toPackedPayload(message));
+                migrated++;
+            } catch (Exception e) {
+                failed++;
+                logger.warn("Message {} non converti au format binaire: {}", message.getId(), e.getMessage());
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            logger.debug("Lot de {} messages converti au format binaire (dernier ID: {})", batch.size(), lastId);
+        }
+        return new BatchResult(batch.size(), lastId, migrated, failed);
+    }
+
+    public long getMigratedCount() {
+        return migratedCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+}
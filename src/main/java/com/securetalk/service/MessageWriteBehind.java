@@ -0,0 +1,405 @@
+package com.securetalk.service;
+
+import com.securetalk.model.Message;
+import com.securetalk.model.MessageStatus;
+import com.securetalk.model.User;
+import com.securetalk.repository.MessageRepository;
+import com.securetalk.repository.ShardedMessageRepository;
+import com.securetalk.repository.UserRepository;
+import com.securetalk.util.MessageJournal;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Écriture différée des messages envoyés (messages.persistence.mode=write-behind).
+ *
+ * Un message accepté reçoit son ID, est rendu durable dans un journal local puis placé dans une file
+ * bornée : la réponse HTTP et la notification WebSocket n'attendent donc pas la base. Un thread
+ * d'écriture vide la file par lots et écrit chaque lot (messages, résumés de conversation, compteurs
+ * de non lus) dans une seule transaction, ce qui remplace un commit par message par un commit par lot.
+ *
+ * Quand la file est pleine, l'envoi est refusé (RejectedExecutionException, HTTP 503) plutôt que de
+ * laisser grandir la mémoire. Au démarrage, les messages du journal absents de la base (arrêt brutal
+ * avant leur écriture) sont écrits avant d'accepter de nouveaux messages.
+ */
+@Service
+@ConditionalOnProperty(name = "messages.persistence.mode", havingValue = "write-behind")
+public class MessageWriteBehind {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageWriteBehind.class);
+
+    private static final String INSERT_MESSAGE =
+            "INSERT INTO messages (id, sender_id, recipient_id, conversation_key, encrypted_content_recipient, " +
+            "encrypted_content_sender, iv_recipient, iv_sender, timestamp, status, format_version, payload) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    @Autowired
+    private MessageRepository messageRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ConversationSummaryService conversationSummaryService;
+
+    @Autowired
+    private UnreadCounterService unreadCounterService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired(required = false)
+    private ShardedMessageRepository shardedMessages;
+
+    @Value("${messages.write-behind.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${messages.write-behind.batch-size:500}")
+    private int batchSize;
+
+    @Value("${messages.write-behind.journal-dir:data/message-journal}")
+    private String journalDir;
+
+    @Value("${messages.write-behind.journal-segment-bytes:67108864}")
+    private long journalSegmentBytes;
+
+    @Value("${messages.write-behind.retry-delay-ms:1000}")
+    private long retryDelayMs;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private MessageJournal journal;
+    private BlockingQueue<PendingMessage> queue;
+    // Places disponibles : rendues une fois le message écrit en base, pas à sa sortie de la file
+    private Semaphore capacity;
+    private Thread writerThread;
+    private volatile boolean running;
+
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+
+    public MessageWriteBehind(PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @PostConstruct
+    void init() throws IOException {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        capacity = new Semaphore(queueCapacity);
+        journal = new MessageJournal(Paths.get(journalDir), journalSegmentBytes);
+        recover();
+
+        running = true;
+        writerThread = new Thread(this::writeLoop, "message-write-behind");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        logger.info("Écriture différée des messages activée (file: {}, lots: {}, journal: {})",
+                queueCapacity, batchSize, journalDir);
+    }
+
+    /**
+     * Accepte un message déjà chiffré et identifié : il est durable au retour, écrit en base plus tard
+     * @throws RejectedExecutionException si la file d'écriture est pleine
+     */
+    public void submit(Message message) {
+        if (!running || !capacity.tryAcquire()) {
+            rejectedCount.incrementAndGet();
+            throw new RejectedExecutionException("Service de messagerie saturé, réessayez dans quelques instants");
+        }
+        try {
+            long segment = journal.append(encode(message));
+            queue.add(new PendingMessage(message, segment));
+        } catch (IOException e) {
+            capacity.release();
+            throw new UncheckedIOException("Écriture du journal des messages impossible", e);
+        }
+    }
+
+    public int getQueuedCount() {
+        return queueCapacity - capacity.availablePermits();
+    }
+
+    public long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    @PreDestroy
+    void shutdown() throws InterruptedException, IOException {
+        running = false;
+        writerThread.interrupt();
+        writerThread.join(TimeUnit.SECONDS.toMillis(30));
+        // Les messages restés en file sont encore dans le journal : ils seront écrits au prochain démarrage
+        journal.close();
+        logger.info("Écriture différée arrêtée, {} messages en attente conservés dans le journal", queue.size());
+    }
+
+    private void writeLoop() {
+        List<PendingMessage> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingMessage first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                writeWithRetry(batch);
+            } catch (InterruptedException e) {
+                if (running) {
+                    continue;
+                }
+                // Arrêt : vider la file tant que la base répond
+                queue.drainTo(batch);
+                if (!batch.isEmpty()) {
+                    try {
+                        tryWrite(batch, new HashSet<>());
+                    } catch (RuntimeException writeError) {
+                        logger.warn("Écriture des messages en attente impossible à l'arrêt: {}", writeError.getMessage());
+                    }
+                }
+                return;
+            } catch (RuntimeException e) {
+                // Ne jamais laisser mourir le thread d'écriture : les places de la file ne seraient plus rendues
+                logger.error("Erreur inattendue du thread d'écriture différée", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Écrit un lot jusqu'à réussite ; les messages déjà écrits lors d'un essai précédent ne sont pas réécrits
+     */
+    private void writeWithRetry(List<PendingMessage> batch) throws InterruptedException {
+        Set<Long> done = new HashSet<>();
+        while (true) {
+            try {
+                if (tryWrite(batch, done)) {
+                    return;
+                }
+            } catch (RuntimeException e) {
+                logger.error("Écriture de {} messages en échec, nouvel essai dans {} ms", batch.size(), retryDelayMs, e);
+            }
+            Thread.sleep(retryDelayMs);
+        }
+    }
+
+    /**
+     * Écrit un lot en une transaction ; un lot refusé pour contrainte d'intégrité est réécrit message
+     * par message pour n'écarter que les messages en cause.
+     * @param done IDs des messages du lot déjà écrits ou écartés, complété au fil des essais
+     * @return false si la base est indisponible et que le lot doit être réessayé
+     */
+    private boolean tryWrite(List<PendingMessage> batch, Set<Long> done) {
+        List<Message> messages = batch.stream().map(PendingMessage::message)
+                .filter(message -> !done.contains(message.getId())).toList();
+        try {
+            if (!messages.isEmpty()) {
+                persist(messages);
+            }
+            batchCount.incrementAndGet();
+            writtenCount.addAndGet(messages.size());
+        } catch (DataIntegrityViolationException e) {
+            logger.warn("Lot de {} messages refusé, écriture message par message: {}", messages.size(), e.getMessage());
+            for (Message message : messages) {
+                try {
+                    persist(List.of(message));
+                    writtenCount.incrementAndGet();
+                } catch (DataIntegrityViolationException rowError) {
+                    droppedCount.incrementAndGet();
+                    logger.error("Message {} écarté, écriture impossible: {}", message.getId(), rowError.getMessage());
+                } catch (DataAccessException | TransactionException rowError) {
+                    // Base devenue indisponible : le reste du lot est réessayé, sans les messages déjà traités
+                    logger.warn("Écriture du message {} impossible, nouvel essai du lot dans {} ms: {}",
+                            message.getId(), retryDelayMs, rowError.getMessage());
+                    return false;
+                }
+                done.add(message.getId());
+            }
+        } catch (DataAccessException | TransactionException e) {
+            // Base indisponible (CannotCreateTransactionException à l'ouverture) ou erreur transitoire
+            logger.warn("Écriture de {} messages impossible, nouvel essai dans {} ms: {}",
+                    messages.size(), retryDelayMs, e.getMessage());
+            return false;
+        }
+
+        release(batch);
+        return true;
+    }
+
+    private void persist(List<Message> messages) {
+        transactionTemplate.executeWithoutResult(status -> {
+            insertMessages(messages);
+            conversationSummaryService.recordMessages(messages);
+
+            Map<Long, Integer> unreadByRecipient = new HashMap<>();
+            for (Message message : messages) {
+                unreadByRecipient.merge(message.getRecipient().getId(), 1, Integer::sum);
+            }
+            unreadByRecipient.forEach(unreadCounterService::increment);
+        });
+    }
+
+    private void insertMessages(List<Message> messages) {
+        if (shardedMessages != null) {
+            // Une transaction par base de répartition, validée avant celle des résumés : si celle-ci échoue,
+            // le lot réessayé ignore les messages déjà insérés et ses résumés sont alors appliqués
+            shardedMessages.insertAll(messages);
+            return;
+        }
+        jdbcTemplate.batchUpdate(INSERT_MESSAGE, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                Message message = messages.get(i);
+                ps.setLong(1, message.getId());
+                ps.setLong(2, message.getSender().getId());
+                ps.setLong(3, message.getRecipient().getId());
+                ps.setString(4, message.getConversationKey());
+                ps.setString(5, message.getEncryptedContentRecipient());
+                ps.setString(6, message.getEncryptedContentSender());
+                ps.setString(7, message.getIvRecipient());
+                ps.setString(8, message.getIvSender());
+                ps.setTimestamp(9, Timestamp.valueOf(message.getTimestamp()));
+                ps.setString(10, message.getStatus().name());
+                ps.setInt(11, message.getFormatVersion());
+                ps.setBytes(12, message.getPayload());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return messages.size();
+            }
+        });
+    }
+
+    private void release(List<PendingMessage> batch) {
+        Map<Long, Integer> bySegment = new HashMap<>();
+        for (PendingMessage pending : batch) {
+            bySegment.merge(pending.segment(), 1, Integer::sum);
+        }
+        try {
+            for (Map.Entry<Long, Integer> entry : bySegment.entrySet()) {
+                journal.release(entry.getKey(), entry.getValue());
+            }
+        } catch (IOException e) {
+            // Segment conservé : ses messages déjà écrits seront ignorés à la relecture
+            logger.warn("Suppression d'un segment du journal impossible: {}", e.getMessage());
+        }
+        capacity.release(batch.size());
+    }
+
+    /**
+     * Écrit les messages du journal de l'exécution précédente qui n'ont pas atteint la base
+     */
+    private void recover() throws IOException {
+        List<byte[]> records = journal.recover();
+        if (records.isEmpty()) {
+            journal.discardRecovered();
+            return;
+        }
+
+        List<Message> messages = new ArrayList<>(records.size());
+        for (byte[] record : records) {
+            messages.add(decode(record));
+        }
+
+        int recovered = 0;
+        for (int from = 0; from < messages.size(); from += batchSize) {
+            List<Message> chunk = messages.subList(from, Math.min(from + batchSize, messages.size()));
+            List<Long> ids = chunk.stream().map(Message::getId).toList();
+            Set<Long> existing = new HashSet<>(shardedMessages != null
+                    ? shardedMessages.findExistingIds(ids) : messageRepository.findExistingIds(ids));
+            List<Message> missing = chunk.stream().filter(m -> !existing.contains(m.getId())).toList();
+            if (!missing.isEmpty()) {
+                persist(missing);
+                recovered += missing.size();
+            }
+        }
+        journal.discardRecovered();
+        logger.info("Journal des messages relu: {} enregistrements, {} messages écrits en base",
+                records.size(), recovered);
+    }
+
+    // Format 3 uniquement : id | expéditeur | destinataire | horodatage (s, ns UTC) | données empaquetées
+    private static byte[] encode(Message message) {
+        byte[] payload = message.getPayload();
+        LocalDateTime timestamp = message.getTimestamp();
+        return ByteBuffer.allocate(4 * Long.BYTES + Integer.BYTES * 2 + payload.length)
+                .putLong(message.getId())
+                .putLong(message.getSender().getId())
+                .putLong(message.getRecipient().getId())
+                .putLong(timestamp.toEpochSecond(ZoneOffset.UTC))
+                .putInt(timestamp.getNano())
+                .putInt(payload.length)
+                .put(payload)
+                .array();
+    }
+
+    private Message decode(byte[] record) {
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        long id = buffer.getLong();
+        User sender = userRepository.getReferenceById(buffer.getLong());
+        User recipient = userRepository.getReferenceById(buffer.getLong());
+        LocalDateTime timestamp = LocalDateTime.ofEpochSecond(buffer.getLong(), buffer.getInt(), ZoneOffset.UTC);
+        byte[] payload = new byte[buffer.getInt()];
+        buffer.get(payload);
+
+        Message message = new Message(sender, recipient, payload);
+        message.setId(id);
+        message.setTimestamp(timestamp);
+        message.setStatus(MessageStatus.SENT);
+        return message;
+    }
+
+    private record PendingMessage(Message message, long segment) {
+    }
+}
@@ -0,0 +1,73 @@
+package com.securetalk.service;
+
+import com.securetalk.util.TokenBucketLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Limite le débit d'envoi de chaque utilisateur : l'envoi d'un message (double chiffrement, écriture
+ * en base, deux notifications) est coûteux, un client abusif ou défaillant ne doit pas accaparer le
+ * service.
+ *
+ * Les envois HTTP sont limités par utilisateur ; les trames STOMP SEND par utilisateur authentifié
+ * de la session WebSocket, ou à défaut par session. Les seaux inactifs sont retirés périodiquement.
+ */
+@Service
+public class SendRateLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(SendRateLimiter.class);
+
+    @Value("${messages.rate-limit.burst:20}")
+    private int burst;
+
+    @Value("${messages.rate-limit.per-second:5}")
+    private int perSecond;
+
+    private TokenBucketLimiter<Long> userLimiter;
+    private TokenBucketLimiter<String> stompLimiter;
+
+    @PostConstruct
+    void init() {
+        userLimiter = new TokenBucketLimiter<>(burst, perSecond);
+        stompLimiter = new TokenBucketLimiter<>(burst, perSecond);
+        logger.info("Limitation des envois: {} messages d'affilée, puis {} par seconde", burst, perSecond);
+    }
+
+    /**
+     * Prend un jeton pour un envoi HTTP
+     * @return 0 si l'envoi est accepté, sinon le délai en millisecondes avant le prochain envoi possible
+     */
+    public long tryAcquire(Long userId) {
+        return userLimiter.tryAcquire(userId);
+    }
+
+    /**
+     * Prend un jeton pour une trame STOMP SEND
+     * @param key Nom de l'utilisateur authentifié, ou identifiant de session
+     * @return 0 si l'envoi est accepté, sinon le délai en millisecondes avant le prochain envoi possible
+     */
+    public long tryAcquireStomp(String key) {
+        return stompLimiter.tryAcquire(key);
+    }
+
+    @Scheduled(fixedDelayString = "${messages.rate-limit.evict-interval-ms:60000}")
+    public void evictIdle() {
+        int removed = userLimiter.evictIdle() + stompLimiter.evictIdle();
+        if (removed > 0) {
+            logger.debug("{} seaux de limitation inactifs retirés", removed);
+        }
+    }
+
+    public TokenBucketLimiter.Stats getUserStats() {
+        return userLimiter.stats();
+    }
+
+    public TokenBucketLimiter.Stats getStompStats() {
+        return stompLimiter.stats();
+    }
+}
@@ -0,0 +1,166 @@
+package com.securetalk.service;
+
+import com.securetalk.model.Message;
+import com.securetalk.repository.ShardedMessageRepository;
+import com.securetalk.repository.ShardedMessageRepository.Shard;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Déplace les conversations vers la base que leur attribue l'anneau de répartition actuel.
+ *
+ * À lancer après l'ajout d'une base à securetalk.sharding.shard-urls (les bases existantes gardent
+ * leur position sur l'anneau, seules les conversations reprises par la nouvelle base bougent), ou
+ * au passage en mode réparti pour vider la table messages de la base principale.
+ *
+ * Chaque conversation est déplacée par pages de messages : copie dans la base cible (en ignorant les
+ * messages déjà copiés), puis suppression dans la base source, chacune dans sa transaction. Une
+ * interruption laisse au pire des doublons que la passe suivante supprime. Tant qu'une conversation
+ * n'est pas déplacée, ses anciens messages ne sont pas visibles depuis sa nouvelle base.
+ */
+@Service
+@Order(5)
+@ConditionalOnExpression("!'${securetalk.sharding.shard-urls:}'.trim().isEmpty()")
+public class ShardRebalancer implements CommandLineRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShardRebalancer.class);
+
+    @Autowired
+    private ShardedMessageRepository shardedMessages;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${securetalk.sharding.rebalance-batch-size:500}")
+    private int batchSize;
+
+    @Value("${securetalk.sharding.rebalance-on-startup:false}")
+    private boolean rebalanceOnStartup;
+
+    private final TransactionTemplate primaryTransaction;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    /**
+     * Base source d'un déplacement : une base de répartition, ou la base principale (shard null)
+     */
+    private record Source(String name, Shard shard, NamedParameterJdbcTemplate jdbc, TransactionTemplate transaction) {
+
+        JdbcOperations jdbcOperations() {
+            return jdbc.getJdbcOperations();
+        }
+    }
+
+    /**
+     * Résultat d'une passe de répartition
+     * @param conversations Conversations déplacées
+     * @param messages Messages copiés vers leur nouvelle base
+     */
+    public record RebalanceResult(int conversations, long messages) {
+    }
+
+    public ShardRebalancer(PlatformTransactionManager transactionManager) {
+        this.primaryTransaction = new TransactionTemplate(transactionManager);
+    }
+
+    @Override
+    public void run(String... args) {
+        if (rebalanceOnStartup) {
+            rebalance();
+        }
+    }
+
+    /**
+     * Parcourt la base principale et toutes les bases de répartition, et déplace chaque conversation
+     * stockée ailleurs que sur sa base propriétaire
+     * @throws IllegalStateException si une passe est déjà en cours
+     */
+    public RebalanceResult rebalance() {
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("Une répartition des conversations est déjà en cours");
+        }
+        try {
+            long start = System.currentTimeMillis();
+            List<Source> sources = new ArrayList<>();
+            sources.add(new Source("principale", null, new NamedParameterJdbcTemplate(jdbcTemplate), primaryTransaction));
+            for (Shard shard : shardedMessages.getShards()) {
+                sources.add(new Source(shard.name(), shard, shard.jdbc(), shard.transactionTemplate()));
+            }
+
+            int conversations = 0;
+            long messages = 0;
+            for (Source source : sources) {
+                String afterKey = "";
+                List<String> keys;
+                do {
+                    keys = source.jdbcOperations().queryForList(
+                            "SELECT DISTINCT conversation_key FROM messages WHERE conversation_key > ? " +
+                            "ORDER BY conversation_key LIMIT ?", String.class, afterKey, batchSize);
+                    for (String key : keys) {
+                        Shard target = shardedMessages.shardFor(key);
+                        if (target != source.shard()) {
+                            messages += moveConversation(source, key, target);
+                            conversations++;
+                        }
+                    }
+                    if (!keys.isEmpty()) {
+                        afterKey = keys.get(keys.size() - 1);
+                    }
+                } while (keys.size() == batchSize);
+            }
+
+            logger.info("Répartition terminée: {} conversations ({} messages) déplacées en {} ms",
+                    conversations, messages, System.currentTimeMillis() - start);
+            return new RebalanceResult(conversations, messages);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private long moveConversation(Source source, String conversationKey, Shard target) {
+        long copied = 0;
+        List<Message> page;
+        do {
+            page = source.jdbcOperations().query("SELECT " + ShardedMessageRepository.COLUMNS + " FROM messages " +
+                    "WHERE conversation_key = ? ORDER BY id LIMIT ?",
+                    ShardedMessageRepository.MESSAGE_MAPPER, conversationKey, batchSize);
+            if (page.isEmpty()) {
+                break;
+            }
+            List<Long> ids = page.stream().map(Message::getId).toList();
+
+            Set<Long> existing = new HashSet<>(target.jdbc().queryForList(
+                    "SELECT id FROM messages WHERE id IN (:ids)", Map.of("ids", ids), Long.class));
+            List<Message> missing = page.stream().filter(m -> !existing.contains(m.getId())).toList();
+            if (!missing.isEmpty()) {
+                target.transactionTemplate().executeWithoutResult(status ->
+                        ShardedMessageRepository.insertRows(target.jdbcOperations(), missing));
+                copied += missing.size();
+            }
+
+            source.transaction().executeWithoutResult(status ->
+                    source.jdbc().update("DELETE FROM messages WHERE id IN (:ids)", Map.of("ids", ids)));
+        } while (page.size() == batchSize);
+
+        logger.debug("Conversation {} déplacée de la base {} vers {} ({} messages)",
+                conversationKey, source.name(), target.name(), copied);
+        return copied;
+    }
+}
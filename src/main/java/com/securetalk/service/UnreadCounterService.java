@@ -0,0 +1,114 @@
+package com.securetalk.service;
+
+import com.securetalk.repository.ConversationSummaryRepository;
+import com.securetalk.util.BoundedCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import jakarta.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compteurs en mémoire du nombre total de messages non lus par utilisateur.
+ *
+ * La source de vérité reste la table conversation_summary : un compteur absent est recalculé
+ * à partir des résumés de l'utilisateur, puis tenu à jour à chaque envoi et lecture une fois
+ * la transaction validée. Les compteurs expirent régulièrement, ce qui corrige les écarts
+ * éventuels (autres instances, chargement concurrent d'une mise à jour).
+ * Chaque changement est poussé à l'utilisateur sur /user/queue/unread-count.
+ */
+@Service
+public class UnreadCounterService {
+
+    private static final Logger logger = LoggerFactory.getLogger(UnreadCounterService.class);
+
+    @Autowired
+    private ConversationSummaryRepository summaryRepository;
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Value("${messages.unread-counter.max-size:100000}")
+    private int maxSize;
+
+    @Value("${messages.unread-counter.ttl-minutes:10}")
+    private long ttlMinutes;
+
+    private BoundedCache<Long, AtomicInteger> counters;
+
+    @PostConstruct
+    void init() {
+        counters = new BoundedCache<>(maxSize, Duration.ofMinutes(ttlMinutes));
+    }
+
+    /**
+     * Nombre total de messages non lus d'un utilisateur
+     */
+    public int getUnreadCount(Long userId) {
+        AtomicInteger counter = counters.get(userId);
+        if (counter == null) {
+            counter = new AtomicInteger(Math.toIntExact(summaryRepository.sumUnreadCountByOwnerId(userId)));
+            counters.put(userId, counter);
+            logger.debug("Compteur de non lus chargé pour l'utilisateur {}: {}", userId, counter.get());
+        }
+        return counter.get();
+    }
+
+    /**
+     * Ajoute des messages non lus au compteur, après validation de la transaction en cours
+     */
+    public void increment(Long userId, int count) {
+        afterCommit(() -> update(userId, count));
+    }
+
+    /**
+     * Retire des messages lus du compteur, après validation de la transaction en cours
+     */
+    public void decrement(Long userId, int count) {
+        afterCommit(() -> update(userId, -count));
+    }
+
+    public BoundedCache.CacheStats getStats() {
+        return counters.stats();
+    }
+
+    private void update(Long userId, int delta) {
+        if (delta == 0) {
+            return;
+        }
+        AtomicInteger counter = counters.get(userId);
+        int unreadCount;
+        if (counter != null) {
+            unreadCount = counter.updateAndGet(value -> Math.max(0, value + delta));
+        } else {
+            // Pas de compteur en mémoire : les résumés validés reflètent déjà ce changement
+            unreadCount = getUnreadCount(userId);
+        }
+
+        try {
+            messagingTemplate.convertAndSendToUser(userId.toString(), "/queue/unread-count", unreadCount);
+        } catch (Exception e) {
+            logger.warn("Envoi du compteur de non lus à l'utilisateur {} impossible: {}", userId, e.getMessage());
+        }
+    }
+
+    private void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+}
@@ -1,10 +1,14 @@
 package com.securetalk.service;
 
+import com.securetalk.config.ReplicaRoutingDataSource;
 import com.securetalk.model.User;
 import com.securetalk.repository.UserRepository;
+import com.securetalk.security.services.UserAccountChangedEvent;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -18,9 +22,17 @@ public class UserService {
     @Autowired
     private PasswordEncoder passwordEncoder;
     
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    
+    // Présent uniquement si des répliques en lecture sont configurées
+    @Autowired(required = false)
+    private ReplicaRoutingDataSource replicaRoutingDataSource;
+    
     /**
      * Récupère tous les utilisateurs
      */
+    @Transactional(readOnly = true)
     public List<User> getAllUsers() {
         return userRepository.findAll();
     }
@@ -28,6 +40,7 @@ public class UserService {
     /**
      * Récupère un utilisateur par son ID
      */
+    @Transactional(readOnly = true)
     public Optional<User> getUserById(Long id) {
         return userRepository.findById(id);
     }
@@ -35,6 +48,7 @@ public class UserService {
     /**
      * Récupère un utilisateur par son nom d'utilisateur
      */
+    @Transactional(readOnly = true)
     public Optional<User> getUserByUsername(String username) {
         return userRepository.findByUsername(username);
     }
@@ -42,6 +56,7 @@ public class UserService {
     /**
      * Met à jour le statut de connexion d'un utilisateur
      */
+    @Transactional
     public User updateUserStatus(Long userId, boolean online) {
         User user = userRepository.findById(userId)
                 .orElseThrow(() -> new RuntimeException("Utilisateur non trouvé"));
@@ -51,7 +66,9 @@ public class UserService {
             user.setLastSeen(LocalDateTime.now());
         }
         
-        return userRepository.save(user);
+        User saved = userRepository.save(user);
+        recordWrite();
+        return saved;
     }
     
     /**
@@ -66,6 +83,19 @@ public class UserService {
         }
         
         user.setPassword(passwordEncoder.encode(newPassword));
-        return userRepository.save(user);
+        User saved = userRepository.save(user);
+        // Cache d'authentification et tokens déjà émis ne reflètent plus le compte
+        eventPublisher.publishEvent(new UserAccountChangedEvent(saved.getId(), saved.getUsername(),
+                saved.getEmail(), UserAccountChangedEvent.Change.PASSWORD));
+        return saved;
+    }
+    
+    /**
+     * Lectures de l'utilisateur servies par la primaire après validation de la transaction en cours
+     */
+    private void recordWrite() {
+        if (replicaRoutingDataSource != null) {
+            replicaRoutingDataSource.recordWrite();
+        }
     }
 }
@@ -0,0 +1,102 @@
+package com.securetalk.util;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+/**
+ * Moteur AES-GCM réutilisant une instance de Cipher par thread.
+ *
+ * Cipher.getInstance effectue une recherche de fournisseur coûteuse ; chaque thread conserve donc
+ * sa propre instance, réinitialisée avec la clé et l'IV à chaque opération. Les méthodes travaillent
+ * directement sur des tableaux d'octets ou des ByteBuffer pour éviter les copies intermédiaires.
+ */
+public final class AesGcmEngine {
+
+    public static final String ALGORITHM = "AES/GCM/NoPadding";
+    public static final int TAG_LENGTH_BITS = 128;
+    public static final int TAG_LENGTH_BYTES = TAG_LENGTH_BITS / 8;
+    public static final int IV_LENGTH = 12;
+
+    private final ThreadLocal<Cipher> ciphers = ThreadLocal.withInitial(AesGcmEngine::newCipher);
+
+    /**
+     * Chiffre des données
+     * @param key Clé AES
+     * @param iv Vecteur d'initialisation de 12 bytes, jamais réutilisé avec la même clé
+     * @param plaintext Données en clair
+     * @return Données chiffrées suivies du tag d'authentification
+     */
+    public byte[] encrypt(SecretKey key, byte[] iv, byte[] plaintext) throws GeneralSecurityException {
+        return init(Cipher.ENCRYPT_MODE, key, iv).doFinal(plaintext);
+    }
+
+    /**
+     * Chiffre des données directement dans un tableau de sortie, par exemple un format binaire empaqueté
+     * @return Nombre d'octets écrits à partir de outputOffset
+     */
+    public int encrypt(SecretKey key, byte[] iv, byte[] plaintext, byte[] output, int outputOffset) throws GeneralSecurityException {
+        return init(Cipher.ENCRYPT_MODE, key, iv).doFinal(plaintext, 0, plaintext.length, output, outputOffset);
+    }
+
+    /**
+     * Chiffre le contenu restant de {@code input} dans {@code output}
+     * @return Nombre d'octets écrits dans output
+     */
+    public int encrypt(SecretKey key, byte[] iv, ByteBuffer input, ByteBuffer output) throws GeneralSecurityException {
+        return init(Cipher.ENCRYPT_MODE, key, iv).doFinal(input, output);
+    }
+
+    /**
+     * Déchiffre et authentifie des données
+     * @param key Clé AES
+     * @param iv Vecteur d'initialisation utilisé au chiffrement
+     * @param ciphertext Données chiffrées suivies du tag d'authentification
+     * @return Données en clair
+     * @throws javax.crypto.AEADBadTagException si les données ont été altérées ou la clé est incorrecte
+     */
+    public byte[] decrypt(SecretKey key, byte[] iv, byte[] ciphertext) throws GeneralSecurityException {
+        return init(Cipher.DECRYPT_MODE, key, iv).doFinal(ciphertext);
+    }
+
+    /**
+     * Déchiffre une portion d'un tableau, par exemple un champ d'un format binaire empaqueté
+     */
+    public byte[] decrypt(SecretKey key, byte[] iv, byte[] input, int offset, int length) throws GeneralSecurityException {
+        return init(Cipher.DECRYPT_MODE, key, iv).doFinal(input, offset, length);
+    }
+
+    /**
+     * Déchiffre le contenu restant de {@code input} dans {@code output}
+     * @return Nombre d'octets écrits dans output
+     */
+    public int decrypt(SecretKey key, byte[] iv, ByteBuffer input, ByteBuffer output) throws GeneralSecurityException {
+        return init(Cipher.DECRYPT_MODE, key, iv).doFinal(input, output);
+    }
+
+    /**
+     * Taille du résultat chiffré pour une entrée donnée
+     */
+    public static int encryptedLength(int plaintextLength) {
+        return plaintextLength + TAG_LENGTH_BYTES;
+    }
+
+    private Cipher init(int mode, SecretKey key, byte[] iv) throws GeneralSecurityException {
+        if (iv == null || iv.length != IV_LENGTH) {
+            throw new IllegalArgumentException("L'IV doit faire " + IV_LENGTH + " bytes");
+        }
+        Cipher cipher = ciphers.get();
+        cipher.init(mode, key, new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+        return cipher;
+    }
+
+    private static Cipher newCipher() {
+        try {
+            return Cipher.getInstance(ALGORITHM);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Algorithme " + ALGORITHM + " indisponible", e);
+        }
+    }
+}
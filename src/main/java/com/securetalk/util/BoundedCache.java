@@ -0,0 +1,198 @@
+package com.securetalk.util;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache concurrent borné avec expiration par entrée.
+ *
+ * L'éviction suit un algorithme GCLOCK : chaque accès incrémente un petit compteur de fréquence
+ * (plafonné), et l'aiguille d'éviction décrémente ce compteur à chaque passage. Une entrée n'est
+ * évincée qu'une fois son compteur tombé à zéro, ce qui favorise à la fois les entrées fréquemment
+ * utilisées et celles accédées récemment. Une entrée ajoutée part d'un compteur à un et n'est pas
+ * évincée par le tour que son propre ajout déclenche. Les lectures ne prennent aucun verrou.
+ *
+ * @param <K> Type des clés
+ * @param <V> Type des valeurs
+ */
+public class BoundedCache<K, V> {
+
+    // Plafond du compteur de fréquence : borne le nombre de tours d'aiguille avant éviction
+    private static final int MAX_FREQUENCY = 7;
+
+    private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final int maximumSize;
+    private final long defaultTtlNanos;
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private Iterator<Map.Entry<K, Entry<V>>> clockHand;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    /**
+     * @param maximumSize Nombre maximal d'entrées conservées
+     * @param defaultTtl Durée de vie par défaut d'une entrée
+     */
+    public BoundedCache(int maximumSize, Duration defaultTtl) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("La taille maximale du cache doit être positive");
+        }
+        this.maximumSize = maximumSize;
+        this.defaultTtlNanos = defaultTtl.toNanos();
+    }
+
+    /**
+     * Récupère une valeur si elle est présente et non expirée
+     * @param key Clé recherchée
+     * @return La valeur ou null
+     */
+    public V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (entry.isExpired(System.nanoTime())) {
+            if (entries.remove(key, entry)) {
+                expirations.increment();
+            }
+            misses.increment();
+            return null;
+        }
+        entry.recordAccess();
+        hits.increment();
+        return entry.value;
+    }
+
+    /**
+     * Ajoute ou remplace une valeur avec la durée de vie par défaut
+     */
+    public void put(K key, V value) {
+        put(key, value, defaultTtlNanos);
+    }
+
+    /**
+     * Ajoute ou remplace une valeur avec une durée de vie spécifique
+     */
+    public void put(K key, V value, Duration ttl) {
+        put(key, value, ttl.toNanos());
+    }
+
+    private void put(K key, V value, long ttlNanos) {
+        Entry<V> entry = new Entry<>(value, System.nanoTime() + ttlNanos);
+        entries.put(key, entry);
+        if (entries.size() > maximumSize) {
+            evict(entry);
+        }
+    }
+
+    /**
+     * Supprime une entrée du cache
+     */
+    public void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Vide entièrement le cache
+     */
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Retourne un instantané des statistiques du cache
+     */
+    public CacheStats stats() {
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), expirations.sum(), entries.size());
+    }
+
+    /**
+     * Fait tourner l'aiguille GCLOCK jusqu'à revenir sous la taille maximale.
+     * L'itérateur de ConcurrentHashMap est faiblement cohérent : il reste valide malgré
+     * les modifications concurrentes, ce qui permet de reprendre là où le dernier tour s'est arrêté.
+     * @param inserted Entrée dont l'ajout a déclenché l'éviction, jamais évincée par ce tour
+     */
+    private void evict(Entry<V> inserted) {
+        evictionLock.lock();
+        try {
+            long now = System.nanoTime();
+            // Borne de sécurité : chaque entrée ne peut être vue que MAX_FREQUENCY + 1 fois avant d'être évincée
+            long budget = (long) (MAX_FREQUENCY + 2) * (entries.size() + 1);
+            while (entries.size() > maximumSize && budget-- > 0) {
+                if (clockHand == null || !clockHand.hasNext()) {
+                    clockHand = entries.entrySet().iterator();
+                    if (!clockHand.hasNext()) {
+                        return;
+                    }
+                }
+                Map.Entry<K, Entry<V>> candidate = clockHand.next();
+                Entry<V> entry = candidate.getValue();
+                if (entry == inserted) {
+                    continue;
+                }
+                if (entry.isExpired(now)) {
+                    if (entries.remove(candidate.getKey(), entry)) {
+                        expirations.increment();
+                    }
+                } else if (entry.frequency > 0) {
+                    entry.frequency--;
+                } else if (entries.remove(candidate.getKey(), entry)) {
+                    evictions.increment();
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long expiresAtNanos;
+        // Accès concurrents volontairement non atomiques : une mise à jour perdue n'a pas d'importance ici
+        private volatile int frequency;
+
+        private Entry(V value, long expiresAtNanos) {
+            this.value = value;
+            this.expiresAtNanos = expiresAtNanos;
+            // L'insertion compte comme un accès : une entrée neuve survit aussi au tour suivant son ajout
+            this.frequency = 1;
+        }
+
+        private boolean isExpired(long now) {
+            return now - expiresAtNanos > 0;
+        }
+
+        private void recordAccess() {
+            int current = frequency;
+            if (current < MAX_FREQUENCY) {
+                frequency = current + 1;
+            }
+        }
+    }
+
+    /**
+     * Statistiques cumulées d'un cache
+     */
+    public record CacheStats(long hits, long misses, long evictions, long expirations, long size) {
+        public double hitRate() {
+            long requests = hits + misses;
+            return requests == 0 ? 0.0 : (double) hits / requests;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.securetalk.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Anneau de hachage cohérent à nœuds virtuels.
+ *
+ * Chaque nœud occupe {@code virtualNodes} positions sur un anneau de 2^64 valeurs ; une clé appartient
+ * au premier nœud rencontré à partir de sa propre position. Ajouter un nœud ne déplace que les clés
+ * qu'il reprend (environ 1/N), sans réaffecter les clés entre les nœuds existants. Les positions
+ * dépendent uniquement du nom des nœuds : deux instances configurées de la même façon placent
+ * toujours une clé sur le même nœud.
+ *
+ * L'anneau est immuable ; la recherche est une recherche dichotomique sur un tableau trié.
+ *
+ * @param <T> Type des nœuds
+ */
+public final class ConsistentHashRing<T> {
+
+    private final long[] positions;
+    private final Object[] owners;
+    private final List<T> nodes;
+
+    /**
+     * @param nodes Nœuds de l'anneau
+     * @param nodeName Nom stable d'un nœud, qui détermine ses positions
+     * @param virtualNodes Nombre de positions par nœud (équilibre de la répartition)
+     */
+    public ConsistentHashRing(List<T> nodes, Function<T, String> nodeName, int virtualNodes) {
+        if (nodes.isEmpty() || virtualNodes < 1) {
+            throw new IllegalArgumentException("L'anneau doit contenir au moins un nœud et une position par nœud");
+        }
+        this.nodes = List.copyOf(nodes);
+
+        int size = nodes.size() * virtualNodes;
+        long[] unsortedPositions = new long[size];
+        Object[] unsortedOwners = new Object[size];
+        Integer[] order = new Integer[size];
+        for (int n = 0; n < nodes.size(); n++) {
+            String name = nodeName.apply(nodes.get(n));
+            for (int v = 0; v < virtualNodes; v++) {
+                int index = n * virtualNodes + v;
+                unsortedPositions[index] = hash(name + "#" + v);
+                unsortedOwners[index] = nodes.get(n);
+                order[index] = index;
+            }
+        }
+        Arrays.sort(order, (a, b) -> Long.compareUnsigned(unsortedPositions[a], unsortedPositions[b]));
+
+        this.positions = new long[size];
+        this.owners = new Object[size];
+        for (int i = 0; i < size; i++) {
+            positions[i] = unsortedPositions[order[i]];
+            owners[i] = unsortedOwners[order[i]];
+        }
+    }
+
+    /**
+     * Nœud propriétaire d'une clé
+     */
+    @SuppressWarnings("unchecked")
+    public T nodeFor(String key) {
+        long position = hash(key);
+        int low = 0;
+        int high = positions.length - 1;
+        // Première position >= position de la clé (ordre non signé), sinon retour au début de l'anneau
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (Long.compareUnsigned(positions[mid], position) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return (T) owners[low == positions.length ? 0 : low];
+    }
+
+    public List<T> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Position d'une chaîne sur l'anneau : les 64 premiers bits de son MD5
+     */
+    static long hash(String value) {
+        byte[] digest = md5().digest(value.getBytes(StandardCharsets.UTF_8));
+        long hash = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            hash = (hash << 8) | (digest[i] & 0xFF);
+        }
+        return hash;
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 non disponible", e);
+        }
+    }
+}
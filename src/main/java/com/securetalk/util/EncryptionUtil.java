@@ -1,39 +1,60 @@
 package com.securetalk.util;
 
 import com.securetalk.model.Message;
+import com.securetalk.model.MessageStatus;
 import com.securetalk.model.User;
 import com.securetalk.model.UserKey;
+import com.securetalk.repository.MessageView;
 import com.securetalk.repository.UserKeyRepository;
 import com.securetalk.repository.UserRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 
-import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
 import javax.crypto.Mac;
 import javax.crypto.SecretKey;
-import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.Arrays;
 import java.util.Base64;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 @Component
 public class EncryptionUtil {
     private static final Logger logger = LoggerFactory.getLogger(EncryptionUtil.class);
     
-    private static final String ALGORITHM = "AES/GCM/NoPadding";
-    private static final int GCM_TAG_LENGTH = 128;
-    private static final int GCM_IV_LENGTH = 12;
+    private static final int GCM_IV_LENGTH = AesGcmEngine.IV_LENGTH;
+    private static final int DATA_KEY_LENGTH = 32;
+    private static final int WRAPPED_KEY_LENGTH = GCM_IV_LENGTH + DATA_KEY_LENGTH + AesGcmEngine.TAG_LENGTH_BYTES;
+    
+    // Positions des champs dans le format binaire empaqueté (format 3)
+    private static final int PACKED_SENDER_KEY_OFFSET = 1;
+    private static final int PACKED_RECIPIENT_KEY_OFFSET = PACKED_SENDER_KEY_OFFSET + WRAPPED_KEY_LENGTH;
+    private static final int PACKED_BODY_IV_OFFSET = PACKED_RECIPIENT_KEY_OFFSET + WRAPPED_KEY_LENGTH;
+    private static final int PACKED_BODY_OFFSET = PACKED_BODY_IV_OFFSET + GCM_IV_LENGTH;
     private static final String HMAC_ALGORITHM = "HmacSHA256";
     
     @Value("${security.encryption.master-key:#{null}}")
@@ -49,26 +70,64 @@ public class EncryptionUtil {
     @Autowired
     private UserRepository userRepository;
     
-    // Cache des clés pour éviter les accès répétés à la base de données
-    private final Map<Long, CachedKey> keyCache = new HashMap<>();
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
     
-    // Classe pour mettre en cache les clés avec leur date d'expiration
-    private static class CachedKey {
-        private final String key;
-        private final LocalDateTime expiry;
-        
-        public CachedKey(String key, LocalDateTime expiry) {
-            this.key = key;
-            this.expiry = expiry;
-        }
-        
-        public String getKey() {
-            return key;
-        }
-        
-        public boolean isExpired() {
-            return LocalDateTime.now().isAfter(expiry);
-        }
+    @Value("${security.encryption.key-cache.max-size:100000}")
+    private int keyCacheMaxSize;
+    
+    @Value("${security.encryption.key-cache.ttl-minutes:5}")
+    private long keyCacheTtlMinutes;
+    
+    // Moteur AES-GCM conservant une instance de Cipher par thread
+    private final AesGcmEngine cryptoEngine = new AesGcmEngine();
+    
+    // Source d'IV non bloquante (compteur + champ aléatoire), sans appel à SecureRandom par message
+    private final IvGenerator ivGenerator = new IvGenerator();
+    
+    // Cache des clés déjà décodées pour éviter les accès répétés à la base de données et le décodage Base64
+    private BoundedCache<Long, SecretKey> keyCache;
+    
+    // Taille de lot à partir de laquelle le déchiffrement d'une conversation est parallélisé
+    @Value("${messages.decrypt.parallel-threshold:256}")
+    private int parallelDecryptThreshold;
+    
+    // Nombre de threads du pool de déchiffrement (0 = nombre de processeurs)
+    @Value("${messages.decrypt.parallelism:0}")
+    private int decryptParallelism;
+    
+    private ForkJoinPool decryptPool;
+    
+    // Durée pendant laquelle une clé désactivée ou impossible à provisionner n'est pas recherchée à nouveau
+    @Value("${security.encryption.key-cache.negative-ttl-seconds:30}")
+    private long negativeKeyCacheTtlSeconds;
+    
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    
+    // Utilisateurs dont la clé est désactivée ou n'a pas pu être créée
+    private BoundedCache<Long, Boolean> unavailableKeyCache;
+    
+    // Chargements de clés en cours, un seul par utilisateur
+    private final ConcurrentHashMap<Long, CompletableFuture<SecretKey>> keyLoads = new ConcurrentHashMap<>();
+    
+    // La création d'une clé est validée indépendamment de la transaction appelante, pour qu'un conflit
+    // d'insertion n'invalide pas l'envoi du message en cours
+    private TransactionTemplate keyProvisioningTransaction;
+    
+    @PostConstruct
+    void init() {
+        keyCache = new BoundedCache<>(keyCacheMaxSize, Duration.ofMinutes(keyCacheTtlMinutes));
+        unavailableKeyCache = new BoundedCache<>(keyCacheMaxSize, Duration.ofSeconds(negativeKeyCacheTtlSeconds));
+        keyProvisioningTransaction = new TransactionTemplate(transactionManager);
+        keyProvisioningTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        int parallelism = decryptParallelism > 0 ? decryptParallelism : Runtime.getRuntime().availableProcessors();
+        decryptPool = new ForkJoinPool(parallelism);
+    }
+    
+    @PreDestroy
+    void shutdownDecryptPool() {
+        decryptPool.shutdown();
     }
 
     /**
@@ -78,7 +137,7 @@ public class EncryptionUtil {
     public String generateKey() {
         try {
             KeyGenerator keyGen = KeyGenerator.getInstance("AES");
-            keyGen.init(256, SecureRandom.getInstanceStrong());
+            keyGen.init(256, IvGenerator.random());
             SecretKey key = keyGen.generateKey();
             String keyBase64 = Base64.getEncoder().encodeToString(key.getEncoded());
             logger.debug("Nouvelle clé de chiffrement générée");
@@ -144,17 +203,15 @@ public class EncryptionUtil {
      * @return IV encodé en Base64
      */
     public String generateIv() {
-        byte[] iv = new byte[GCM_IV_LENGTH];
-        try {
-            SecureRandom.getInstanceStrong().nextBytes(iv);
-            logger.debug("Génération d'un nouveau IV pour AES-GCM");
-            return Base64.getEncoder().encodeToString(iv);
-        } catch (NoSuchAlgorithmException e) {
-            // Fallback si getInstanceStrong échoue
-            logger.warn("Utilisation de SecureRandom standard suite à une erreur: {}", e.getMessage());
-            new SecureRandom().nextBytes(iv);
-            return Base64.getEncoder().encodeToString(iv);
-        }
+        return Base64.getEncoder().encodeToString(generateIvBytes());
+    }
+
+    /**
+     * Génère un vecteur d'initialisation (IV) brut pour le chiffrement AES-GCM
+     * @return IV de 12 bytes
+     */
+    public byte[] generateIvBytes() {
+        return ivGenerator.nextIv();
     }
 
     /**
@@ -165,9 +222,27 @@ public class EncryptionUtil {
      * @return Message chiffré encodé en Base64
      */
     public String encrypt(String message, String keyStr, String ivStr) {
+        SecretKey key;
+        try {
+            key = keyStr != null ? toSecretKey(keyStr) : null;
+        } catch (IllegalArgumentException e) {
+            logger.error("Erreur lors du chiffrement: {}", e.getMessage());
+            throw new RuntimeException("Erreur lors du chiffrement", e);
+        }
+        return encrypt(message, key, ivStr);
+    }
+
+    /**
+     * Chiffre un message avec AES-GCM à partir d'une clé déjà décodée
+     * @param message Message à chiffrer
+     * @param key Clé AES-256
+     * @param ivStr Vecteur d'initialisation en Base64
+     * @return Message chiffré encodé en Base64
+     */
+    public String encrypt(String message, SecretKey key, String ivStr) {
         try {
             // Validation des entrées
-            if (message == null || keyStr == null || ivStr == null) {
+            if (message == null || key == null || ivStr == null) {
                 throw new IllegalArgumentException("Les paramètres de chiffrement ne peuvent pas être null");
             }
             
@@ -176,31 +251,10 @@ public class EncryptionUtil {
                 return ""; // Message vide = résultat vide
             }
             
-            // Vérifier que la clé et l'IV sont au bon format Base64
-            if (!isValidBase64(keyStr) || !isValidBase64(ivStr)) {
-                throw new IllegalArgumentException("La clé ou l'IV ne sont pas en format Base64 valide");
-            }
-            
-            byte[] keyBytes = Base64.getDecoder().decode(keyStr);
+            // Un seul décodage : une chaîne Base64 invalide lève IllegalArgumentException
             byte[] ivBytes = Base64.getDecoder().decode(ivStr);
             
-            // Vérifier les longueurs
-            if (keyBytes.length != 32) { // AES-256 = 32 bytes
-                throw new IllegalArgumentException("La clé doit faire 256 bits (32 bytes)");
-            }
-            
-            if (ivBytes.length != GCM_IV_LENGTH) {
-                throw new IllegalArgumentException("L'IV doit faire " + GCM_IV_LENGTH + " bytes");
-            }
-            
-            // Chiffrement
-            SecretKey key = new SecretKeySpec(keyBytes, "AES");
-            GCMParameterSpec gcmParameterSpec = new GCMParameterSpec(GCM_TAG_LENGTH, ivBytes);
-            
-            Cipher cipher = Cipher.getInstance(ALGORITHM);
-            cipher.init(Cipher.ENCRYPT_MODE, key, gcmParameterSpec);
-            
-            byte[] cipherText = cipher.doFinal(message.getBytes(StandardCharsets.UTF_8));
+            byte[] cipherText = cryptoEngine.encrypt(key, ivBytes, message.getBytes(StandardCharsets.UTF_8));
             return Base64.getEncoder().encodeToString(cipherText);
         } catch (Exception e) {
             logger.error("Erreur lors du chiffrement: {}", e.getMessage());
@@ -208,6 +262,35 @@ public class EncryptionUtil {
         }
     }
 
+    /**
+     * Chiffre des données brutes avec AES-GCM, sans passage par Base64
+     * @param plaintext Données en clair
+     * @param key Clé AES-256
+     * @param iv Vecteur d'initialisation de 12 bytes
+     * @return Données chiffrées suivies du tag d'authentification
+     */
+    public byte[] encrypt(byte[] plaintext, SecretKey key, byte[] iv) {
+        try {
+            return cryptoEngine.encrypt(key, iv, plaintext);
+        } catch (Exception e) {
+            logger.error("Erreur lors du chiffrement: {}", e.getMessage());
+            throw new RuntimeException("Erreur lors du chiffrement", e);
+        }
+    }
+
+    /**
+     * Chiffre le contenu restant d'un ByteBuffer dans un autre
+     * @return Nombre d'octets écrits dans output
+     */
+    public int encrypt(ByteBuffer plaintext, ByteBuffer output, SecretKey key, byte[] iv) {
+        try {
+            return cryptoEngine.encrypt(key, iv, plaintext, output);
+        } catch (Exception e) {
+            logger.error("Erreur lors du chiffrement: {}", e.getMessage());
+            throw new RuntimeException("Erreur lors du chiffrement", e);
+        }
+    }
+
     /**
      * Déchiffre un message avec AES-GCM
      * @param encryptedMessage Message chiffré encodé en Base64
@@ -216,9 +299,27 @@ public class EncryptionUtil {
      * @return Message déchiffré
      */
     public String decrypt(String encryptedMessage, String keyStr, String ivStr) {
+        SecretKey key;
+        try {
+            key = keyStr != null ? toSecretKey(keyStr) : null;
+        } catch (IllegalArgumentException e) {
+            logger.warn("Clé de déchiffrement invalide: {}", e.getMessage());
+            throw new RuntimeException("Erreur lors du déchiffrement", e);
+        }
+        return decrypt(encryptedMessage, key, ivStr);
+    }
+
+    /**
+     * Déchiffre un message avec AES-GCM à partir d'une clé déjà décodée
+     * @param encryptedMessage Message chiffré encodé en Base64
+     * @param key Clé AES-256
+     * @param ivStr Vecteur d'initialisation en Base64
+     * @return Message déchiffré
+     */
+    public String decrypt(String encryptedMessage, SecretKey key, String ivStr) {
         try {
             // Validation des entrées
-            if (encryptedMessage == null || keyStr == null || ivStr == null) {
+            if (encryptedMessage == null || key == null || ivStr == null) {
                 logger.warn("Tentative de déchiffrement avec des paramètres null");
                 throw new IllegalArgumentException("Les paramètres de déchiffrement ne peuvent pas être null");
             }
@@ -228,34 +329,11 @@ public class EncryptionUtil {
                 return ""; // Message vide = résultat vide
             }
             
-            if (!isValidBase64(encryptedMessage) || !isValidBase64(keyStr) || !isValidBase64(ivStr)) {
-                logger.warn("Format Base64 invalide pour le déchiffrement");
-                throw new IllegalArgumentException("Les données ne sont pas en format Base64 valide");
-            }
-            
-            byte[] keyBytes = Base64.getDecoder().decode(keyStr);
+            // Un seul décodage : une chaîne Base64 invalide lève IllegalArgumentException
             byte[] ivBytes = Base64.getDecoder().decode(ivStr);
             byte[] encryptedBytes = Base64.getDecoder().decode(encryptedMessage);
             
-            // Vérification des longueurs
-            if (keyBytes.length != 32) {
-                logger.warn("Longueur de clé invalide: {} bytes au lieu de 32", keyBytes.length);
-                throw new IllegalArgumentException("La clé doit faire 256 bits (32 bytes)");
-            }
-            
-            if (ivBytes.length != GCM_IV_LENGTH) {
-                logger.warn("Longueur d'IV invalide: {} bytes au lieu de {}", ivBytes.length, GCM_IV_LENGTH);
-                throw new IllegalArgumentException("L'IV doit faire " + GCM_IV_LENGTH + " bytes");
-            }
-            
-            // Déchiffrement
-            SecretKey key = new SecretKeySpec(keyBytes, "AES");
-            GCMParameterSpec gcmParameterSpec = new GCMParameterSpec(GCM_TAG_LENGTH, ivBytes);
-            
-            Cipher cipher = Cipher.getInstance(ALGORITHM);
-            cipher.init(Cipher.DECRYPT_MODE, key, gcmParameterSpec);
-            
-            byte[] decryptedBytes = cipher.doFinal(encryptedBytes);
+            byte[] decryptedBytes = cryptoEngine.decrypt(key, ivBytes, encryptedBytes);
             String result = new String(decryptedBytes, StandardCharsets.UTF_8);
             logger.debug("Déchiffrement réussi, longueur du résultat: {} caractères", result.length());
             return result;
@@ -273,24 +351,55 @@ public class EncryptionUtil {
             throw new RuntimeException("Erreur lors du déchiffrement", e);
         }
     }
-    
+
     /**
-     * Vérifie si une chaîne est en format Base64 valide
-     * @param str Chaîne à vérifier
-     * @return true si la chaîne est un Base64 valide
+     * Déchiffre des données brutes avec AES-GCM, sans passage par Base64
+     * @param ciphertext Données chiffrées suivies du tag d'authentification
+     * @param key Clé AES-256
+     * @param iv Vecteur d'initialisation utilisé au chiffrement
+     * @return Données en clair
+     * @throws RuntimeException dont la cause est AEADBadTagException si les données sont altérées
      */
-    private boolean isValidBase64(String str) {
+    public byte[] decrypt(byte[] ciphertext, SecretKey key, byte[] iv) {
         try {
-            Base64.getDecoder().decode(str);
-            return true;
-        } catch (IllegalArgumentException e) {
-            return false;
+            return cryptoEngine.decrypt(key, iv, ciphertext);
+        } catch (Exception e) {
+            logger.error("Erreur lors du déchiffrement: {} - {}", e.getClass().getName(), e.getMessage());
+            throw new RuntimeException("Erreur lors du déchiffrement", e);
+        }
+    }
+
+    /**
+     * Déchiffre le contenu restant d'un ByteBuffer dans un autre
+     * @return Nombre d'octets écrits dans output
+     */
+    public int decrypt(ByteBuffer ciphertext, ByteBuffer output, SecretKey key, byte[] iv) {
+        try {
+            return cryptoEngine.decrypt(key, iv, ciphertext, output);
+        } catch (Exception e) {
+            logger.error("Erreur lors du déchiffrement: {} - {}", e.getClass().getName(), e.getMessage());
+            throw new RuntimeException("Erreur lors du déchiffrement", e);
+        }
+    }
+    
+    /**
+     * Décode une clé AES-256 encodée en Base64
+     * @param keyStr Clé encodée en Base64
+     * @return Clé prête à l'emploi
+     * @throws IllegalArgumentException si la clé n'est pas un Base64 valide de 32 bytes
+     */
+    public SecretKey toSecretKey(String keyStr) {
+        byte[] keyBytes = Base64.getDecoder().decode(keyStr);
+        if (keyBytes.length != 32) { // AES-256 = 32 bytes
+            throw new IllegalArgumentException("La clé doit faire 256 bits (32 bytes)");
         }
+        return new SecretKeySpec(keyBytes, "AES");
     }
     
 /**
      * Méthode pour chiffrer un message pour les deux parties (expéditeur et destinataire)
-     * avec des clés et IV différents pour chaque utilisateur
+     * avec des clés et IV différents pour chaque utilisateur (format 1, remplacé par
+     * {@link #encryptMessagePayload} pour les nouveaux messages)
      * 
      * @param content Contenu du message à chiffrer
      * @param senderId ID de l'utilisateur expéditeur
@@ -300,8 +409,8 @@ public class EncryptionUtil {
     public String[] encryptMessageForBoth(String content, Long senderId, Long recipientId) {
         try {
             // Récupérer les clés des deux utilisateurs
-            String recipientKey = getCachedUserKey(recipientId);
-            String senderKey = getCachedUserKey(senderId);
+            SecretKey recipientKey = getCachedUserKey(recipientId);
+            SecretKey senderKey = getCachedUserKey(senderId);
             
             if (recipientKey == null) {
                 throw new RuntimeException("Clé de chiffrement non trouvée pour le destinataire ID: " + recipientId);
@@ -312,22 +421,26 @@ public class EncryptionUtil {
             }
             
             // Générer des IV différents pour chaque chiffrement
-            String ivRecipient = generateIv();
-            String ivSender = generateIv();
+            byte[] ivRecipient = generateIvBytes();
+            byte[] ivSender = generateIvBytes();
+            
+            // Le contenu n'est converti en octets qu'une seule fois pour les deux chiffrements
+            byte[] plaintext = content.getBytes(StandardCharsets.UTF_8);
             
             // Chiffrer le message avec la clé du destinataire
-            String encryptedForRecipient = encrypt(content, recipientKey, ivRecipient);
+            byte[] encryptedForRecipient = encrypt(plaintext, recipientKey, ivRecipient);
             
             // Chiffrer le message avec la clé de l'expéditeur
-            String encryptedForSender = encrypt(content, senderKey, ivSender);
+            byte[] encryptedForSender = encrypt(plaintext, senderKey, ivSender);
             
             logger.debug("Message chiffré pour l'expéditeur {} et le destinataire {}", senderId, recipientId);
             
+            Base64.Encoder encoder = Base64.getEncoder();
             return new String[] { 
-                encryptedForRecipient, 
-                ivRecipient, 
-                encryptedForSender, 
-                ivSender 
+                encoder.encodeToString(encryptedForRecipient), 
+                encoder.encodeToString(ivRecipient), 
+                encoder.encodeToString(encryptedForSender), 
+                encoder.encodeToString(ivSender) 
             };
             
         } catch (Exception e) {
@@ -337,6 +450,143 @@ public class EncryptionUtil {
         }
     }
     
+    /**
+     * Chiffre un message pour stockage au format binaire empaqueté (format 3) : le contenu est chiffré
+     * une seule fois avec une clé de données aléatoire, puis cette clé est chiffrée avec la clé de
+     * chaque participant. Le tout est écrit dans un seul tableau, sans encodage Base64.
+     * 
+     * @param content Contenu du message à chiffrer
+     * @param senderId ID de l'utilisateur expéditeur
+     * @param recipientId ID de l'utilisateur destinataire
+     * @return Données empaquetées à stocker dans {@link Message#getPayload()}
+     */
+    public byte[] encryptMessagePayload(String content, Long senderId, Long recipientId) {
+        try {
+            SecretKey recipientKey = getCachedUserKey(recipientId);
+            SecretKey senderKey = getCachedUserKey(senderId);
+            
+            if (recipientKey == null) {
+                throw new RuntimeException("Clé de chiffrement non trouvée pour le destinataire ID: " + recipientId);
+            }
+            
+            if (senderKey == null) {
+                throw new RuntimeException("Clé de chiffrement non trouvée pour l'expéditeur ID: " + senderId);
+            }
+            
+            byte[] payload = packPayload(content.getBytes(StandardCharsets.UTF_8), senderKey, recipientKey);
+            logger.debug("Message chiffré pour l'expéditeur {} et le destinataire {}", senderId, recipientId);
+            return payload;
+        } catch (Exception e) {
+            logger.error("Erreur lors du chiffrement du message pour l'expéditeur {} et le destinataire {}: {}", 
+                        senderId, recipientId, e.getMessage());
+            throw new RuntimeException("Erreur lors du chiffrement du message", e);
+        }
+    }
+    
+    /**
+     * Convertit un message stocké dans un format antérieur vers le format binaire empaqueté.
+     * Le format 1 est déchiffré avec la clé du destinataire puis rechiffré en enveloppe.
+     * 
+     * @param message Message à convertir
+     * @return Données empaquetées équivalentes
+     * @throws RuntimeException si le message ne peut pas être déchiffré
+     */
+    public byte[] toPackedPayload(Message message) {
+        switch (message.getEffectiveFormatVersion()) {
+            case Message.FORMAT_PACKED:
+                return message.getPayload();
+            default: {
+                Long senderId = message.getSender().getId();
+                Long recipientId = message.getRecipient().getId();
+                SecretKey senderKey = getCachedUserKey(senderId);
+                SecretKey recipientKey = getCachedUserKey(recipientId);
+                if (senderKey == null || recipientKey == null) {
+                    throw new IllegalStateException("Clé manquante pour convertir le message " + message.getId());
+                }
+                String encryptedContent = message.getEncryptedContentRecipient();
+                byte[] plaintext = encryptedContent.isEmpty() ? new byte[0]
+                        : decrypt(Base64.getDecoder().decode(encryptedContent), recipientKey,
+                                Base64.getDecoder().decode(message.getIvRecipient()));
+                return packPayload(plaintext, senderKey, recipientKey);
+            }
+        }
+    }
+    
+    /**
+     * Construit les données empaquetées :
+     * [version][clé de données pour l'expéditeur][clé de données pour le destinataire][IV du corps][corps chiffré + tag]
+     */
+    private byte[] packPayload(byte[] plaintext, SecretKey senderKey, SecretKey recipientKey) {
+        byte[] payload = new byte[PACKED_BODY_OFFSET + AesGcmEngine.encryptedLength(plaintext.length)];
+        payload[0] = (byte) Message.FORMAT_PACKED;
+        
+        // Clé de données propre à ce message
+        SecretKey dataKey = generateDataKey();
+        wrapKey(dataKey, senderKey, payload, PACKED_SENDER_KEY_OFFSET);
+        wrapKey(dataKey, recipientKey, payload, PACKED_RECIPIENT_KEY_OFFSET);
+        
+        ivGenerator.nextIv(payload, PACKED_BODY_IV_OFFSET);
+        byte[] bodyIv = Arrays.copyOfRange(payload, PACKED_BODY_IV_OFFSET, PACKED_BODY_OFFSET);
+        try {
+            cryptoEngine.encrypt(dataKey, bodyIv, plaintext, payload, PACKED_BODY_OFFSET);
+        } catch (Exception e) {
+            throw new RuntimeException("Erreur lors du chiffrement", e);
+        }
+        return payload;
+    }
+    
+    /**
+     * Déchiffre des données empaquetées avec la clé de données destinée à l'un des participants
+     */
+    private byte[] unpackPayload(byte[] payload, boolean forSender, SecretKey userKey) {
+        if (payload == null || payload.length < PACKED_BODY_OFFSET || payload[0] != Message.FORMAT_PACKED) {
+            throw new IllegalArgumentException("Données empaquetées invalides");
+        }
+        SecretKey dataKey = unwrapKey(payload, forSender ? PACKED_SENDER_KEY_OFFSET : PACKED_RECIPIENT_KEY_OFFSET, userKey);
+        byte[] bodyIv = Arrays.copyOfRange(payload, PACKED_BODY_IV_OFFSET, PACKED_BODY_OFFSET);
+        try {
+            return cryptoEngine.decrypt(dataKey, bodyIv, payload, PACKED_BODY_OFFSET, payload.length - PACKED_BODY_OFFSET);
+        } catch (Exception e) {
+            throw new RuntimeException("Erreur lors du déchiffrement", e);
+        }
+    }
+    
+    /**
+     * Chiffre une clé de données avec la clé d'un utilisateur et l'écrit dans dest
+     * sous la forme IV + clé chiffrée + tag ({@value #WRAPPED_KEY_LENGTH} bytes)
+     */
+    private void wrapKey(SecretKey dataKey, SecretKey userKey, byte[] dest, int offset) {
+        ivGenerator.nextIv(dest, offset);
+        byte[] iv = Arrays.copyOfRange(dest, offset, offset + GCM_IV_LENGTH);
+        try {
+            cryptoEngine.encrypt(userKey, iv, dataKey.getEncoded(), dest, offset + GCM_IV_LENGTH);
+        } catch (Exception e) {
+            throw new RuntimeException("Erreur lors du chiffrement de la clé de données", e);
+        }
+    }
+    
+    /**
+     * Déchiffre une clé de données écrite par {@link #wrapKey} à partir de offset
+     */
+    private SecretKey unwrapKey(byte[] src, int offset, SecretKey userKey) {
+        if (src.length < offset + WRAPPED_KEY_LENGTH) {
+            throw new IllegalArgumentException("Clé de données chiffrée de longueur invalide");
+        }
+        byte[] iv = Arrays.copyOfRange(src, offset, offset + GCM_IV_LENGTH);
+        try {
+            byte[] keyBytes = cryptoEngine.decrypt(userKey, iv, src, offset + GCM_IV_LENGTH, WRAPPED_KEY_LENGTH - GCM_IV_LENGTH);
+            return new SecretKeySpec(keyBytes, "AES");
+        } catch (Exception e) {
+            throw new RuntimeException("Erreur lors du déchiffrement de la clé de données", e);
+        }
+    }
+    
+    private SecretKey generateDataKey() {
+        byte[] keyBytes = new byte[DATA_KEY_LENGTH];
+        IvGenerator.random().nextBytes(keyBytes);
+        return new SecretKeySpec(keyBytes, "AES");
+    }
+    
 /**
      * Méthode pour déchiffrer un message en utilisant automatiquement la bonne clé 
      * selon l'utilisateur qui fait la demande
@@ -348,29 +598,121 @@ public class EncryptionUtil {
     public String decryptMessageForUser(Message message, Long userId) {
         try {
             // Vérifier que l'utilisateur est autorisé à lire ce message
-            if (!message.getSender().getId().equals(userId) && !message.getRecipient().getId().equals(userId)) {
-                throw new SecurityException("Non autorisé à lire ce message");
-            }
-            
-            // Récupérer le contenu chiffré et l'IV appropriés selon l'utilisateur
-            String encryptedContent = message.getEncryptedContentForUser(userId);
-            String iv = message.getIvForUser(userId);
+            checkParticipant(message, userId);
             
             // Récupérer la clé de l'utilisateur
-            String userKey = getCachedUserKey(userId);
+            SecretKey userKey = getCachedUserKey(userId);
             
             if (userKey == null) {
                 logger.warn("Clé de déchiffrement non trouvée pour l'utilisateur {}", userId);
                 return "[Message non déchiffrable - Clé utilisateur manquante]";
             }
             
-            // Déchiffrer le message
-            return decrypt(encryptedContent, userKey, iv);
-            
+            return decryptWithKey(new EntityMessageView(message, userId), userId, userKey);
         } catch (SecurityException e) {
             logger.warn("Tentative d'accès non autorisé au message {} par l'utilisateur {}", 
                        message.getId(), userId);
             throw e;
+        }
+    }
+    
+    /**
+     * Déchiffre une liste de messages pour un même utilisateur.
+     * L'autorisation est vérifiée et la clé résolue une seule fois pour tout le lot ; au-delà du seuil
+     * configuré, le travail est réparti sur un pool fork-join borné.
+     * 
+     * @param messages Messages à déchiffrer
+     * @param userId ID de l'utilisateur qui souhaite lire les messages
+     * @return Contenus déchiffrés, dans l'ordre des messages
+     * @throws SecurityException si l'utilisateur ne participe pas à l'un des messages
+     */
+    public List<String> decryptMessagesForUser(List<Message> messages, Long userId) {
+        for (Message message : messages) {
+            try {
+                checkParticipant(message, userId);
+            } catch (SecurityException e) {
+                logger.warn("Tentative d'accès non autorisé au message {} par l'utilisateur {}", 
+                           message.getId(), userId);
+                throw e;
+            }
+        }
+        return decryptAll(messages.stream().map(message -> (MessageView) new EntityMessageView(message, userId)).toList(), userId);
+    }
+    
+    /**
+     * Déchiffre une liste de projections de messages pour un même utilisateur, sans entité JPA
+     * 
+     * @param views Projections contenant les données chiffrées propres à l'utilisateur
+     * @param userId ID de l'utilisateur pour lequel les projections ont été lues
+     * @return Contenus déchiffrés, dans l'ordre des projections
+     * @throws SecurityException si l'utilisateur ne participe pas à l'un des messages
+     */
+    public List<String> decryptMessageViewsForUser(List<MessageView> views, Long userId) {
+        for (MessageView view : views) {
+            if (!view.getSenderId().equals(userId) && !view.getRecipientId().equals(userId)) {
+                logger.warn("Tentative d'accès non autorisé au message {} par l'utilisateur {}", 
+                           view.getId(), userId);
+                throw new SecurityException("Non autorisé à lire ce message");
+            }
+        }
+        return decryptAll(views, userId);
+    }
+    
+    private List<String> decryptAll(List<MessageView> views, Long userId) {
+        String[] contents = new String[views.size()];
+        if (views.isEmpty()) {
+            return Arrays.asList(contents);
+        }
+        
+        SecretKey userKey = getCachedUserKey(userId);
+        if (userKey == null) {
+            logger.warn("Clé de déchiffrement non trouvée pour l'utilisateur {}", userId);
+            Arrays.fill(contents, "[Message non déchiffrable - Clé utilisateur manquante]");
+            return Arrays.asList(contents);
+        }
+        
+        if (views.size() < parallelDecryptThreshold) {
+            for (int i = 0; i < contents.length; i++) {
+                contents[i] = decryptWithKey(views.get(i), userId, userKey);
+            }
+        } else {
+            logger.debug("Déchiffrement parallèle de {} messages pour l'utilisateur {}", views.size(), userId);
+            decryptPool.submit(() -> IntStream.range(0, contents.length).parallel()
+                    .forEach(i -> contents[i] = decryptWithKey(views.get(i), userId, userKey)))
+                    .join();
+        }
+        return Arrays.asList(contents);
+    }
+    
+    private void checkParticipant(Message message, Long userId) {
+        if (!message.getSender().getId().equals(userId) && !message.getRecipient().getId().equals(userId)) {
+            throw new SecurityException("Non autorisé à lire ce message");
+        }
+    }
+    
+    /**
+     * Déchiffre un message avec la clé déjà résolue de l'utilisateur, selon son format de stockage
+     */
+    private String decryptWithKey(MessageView message, Long userId, SecretKey userKey) {
+        try {
+            if (message.getEffectiveFormatVersion() == Message.FORMAT_PACKED) {
+                boolean forSender = message.getSenderId().equals(userId);
+                return new String(unpackPayload(message.getPayload(), forSender, userKey), StandardCharsets.UTF_8);
+            }
+            
+            // Format 1 : contenu chiffré et IV propres à l'utilisateur
+            String encryptedContent = message.getEncryptedContent();
+            String iv = message.getIv();
+            
+            if (encryptedContent.isEmpty()) {
+                return ""; // Message vide = résultat vide
+            }
+            
+            // Déchiffrer le message : un seul décodage Base64 par champ
+            byte[] decrypted = decrypt(Base64.getDecoder().decode(encryptedContent), userKey,
+                    Base64.getDecoder().decode(iv));
+            return new String(decrypted, StandardCharsets.UTF_8);
+            
         } catch (Exception e) {
             logger.error("Erreur lors du déchiffrement du message {} pour l'utilisateur {}: {}", 
                         message.getId(), userId, e.getMessage());
@@ -386,57 +728,200 @@ public class EncryptionUtil {
     }
     
     /**
-     * Récupère la clé de chiffrement d'un utilisateur depuis le cache ou la base de données
+     * Invalide la clé d'un utilisateur dans le cache (création, rotation ou désactivation de clé)
      * @param userId ID de l'utilisateur
-     * @return La clé de chiffrement ou null si non trouvée
      */
-    private String getCachedUserKey(Long userId) {
+    public void evictUserKey(Long userId) {
+        keyCache.invalidate(userId);
+        unavailableKeyCache.invalidate(userId);
+    }
+    
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUserKeyChanged(UserKeyChangedEvent event) {
+        evictUserKey(event.userId());
+    }
+    
+    /**
+     * Statistiques du cache de clés utilisateur
+     */
+    public BoundedCache.CacheStats getKeyCacheStats() {
+        return keyCache.stats();
+    }
+    
+    /**
+     * Statistiques du cache des clés indisponibles (désactivées ou non provisionnées)
+     */
+    public BoundedCache.CacheStats getUnavailableKeyCacheStats() {
+        return unavailableKeyCache.stats();
+    }
+    
+    /**
+     * Récupère la clé de chiffrement d'un utilisateur depuis le cache ou la base de données.
+     *
+     * Les chargements sont dédoublonnés par utilisateur : si plusieurs threads manquent le cache
+     * en même temps, un seul interroge la base (ou génère la clé) et les autres attendent son résultat.
+     * Les clés désactivées ou impossibles à provisionner sont mémorisées brièvement pour ne pas
+     * solliciter la base à chaque tentative.
+     * @param userId ID de l'utilisateur
+     * @return La clé de chiffrement décodée ou null si non trouvée
+     */
+    private SecretKey getCachedUserKey(Long userId) {
         // Vérifier le cache d'abord
-        CachedKey cachedKey = keyCache.get(userId);
-        if (cachedKey != null && !cachedKey.isExpired()) {
+        SecretKey cachedKey = keyCache.get(userId);
+        if (cachedKey != null) {
             logger.debug("Clé trouvée dans le cache pour l'utilisateur {}", userId);
-            return cachedKey.getKey();
+            return cachedKey;
+        }
+        if (unavailableKeyCache.get(userId) != null) {
+            logger.debug("Clé indisponible (en cache) pour l'utilisateur {}", userId);
+            return null;
         }
         
-        // Si pas dans le cache ou expirée, chercher dans la base de données
+        CompletableFuture<SecretKey> load = new CompletableFuture<>();
+        CompletableFuture<SecretKey> inFlight = keyLoads.putIfAbsent(userId, load);
+        if (inFlight != null) {
+            // Un autre thread charge déjà cette clé : attendre son résultat
+            logger.debug("Chargement de la clé de l'utilisateur {} déjà en cours, attente", userId);
+            try {
+                return inFlight.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        
+        try {
+            // Un chargement concurrent a pu se terminer entre la lecture du cache et l'enregistrement
+            SecretKey key = keyCache.get(userId);
+            if (key == null && unavailableKeyCache.get(userId) == null) {
+                key = loadUserKey(userId);
+            }
+            load.complete(key);
+            return key;
+        } catch (RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            keyLoads.remove(userId, load);
+        }
+    }
+    
+    /**
+     * Charge la clé d'un utilisateur depuis la base de données, ou la génère si elle n'existe pas encore
+     */
+    private SecretKey loadUserKey(Long userId) {
         Optional<UserKey> userKeyOpt = userKeyRepository.findByUserId(userId);
         
         if (userKeyOpt.isPresent()) {
-            UserKey userKey = userKeyOpt.get();
-            // Vérifier si la clé est active
-            if (userKey.getIsActive()) {
-                String key = userKey.getEncryptionKey();
-                // Mettre en cache pour 5 minutes
-                keyCache.put(userId, new CachedKey(key, LocalDateTime.now().plusMinutes(5)));
-                logger.debug("Clé récupérée de la base de données pour l'utilisateur {} et mise en cache", userId);
-                return key;
-            } else {
-                logger.warn("La clé de l'utilisateur {} est désactivée", userId);
-                return null;
-            }
-        } else {
-            // Générer une nouvelle clé
-            logger.info("Génération d'une nouvelle clé pour l'utilisateur {}", userId);
-            String newKey = generateKey();
-            
-            try {
+            return cacheUserKey(userId, userKeyOpt.get());
+        }
+        
+        // Générer une nouvelle clé
+        logger.info("Génération d'une nouvelle clé pour l'utilisateur {}", userId);
+        try {
+            UserKey userKey = keyProvisioningTransaction.execute(status -> {
                 // Récupérer l'utilisateur
                 User user = userRepository.findById(userId)
                         .orElseThrow(() -> new RuntimeException("Utilisateur non trouvé: " + userId));
-                
-                // Sauvegarder la clé avec date d'expiration
-                UserKey userKey = new UserKey(user, newKey);
-                userKeyRepository.save(userKey);
-                
-                // Mettre en cache
-                keyCache.put(userId, new CachedKey(newKey, LocalDateTime.now().plusMinutes(5)));
-                logger.info("Nouvelle clé générée et sauvegardée pour l'utilisateur {}", userId);
-                
-                return newKey;
-            } catch (Exception e) {
-                logger.error("Erreur lors de la génération d'une nouvelle clé pour l'utilisateur {}: {}", userId, e.getMessage());
-                return null;
+                UserKey created = userKeyRepository.saveAndFlush(new UserKey(user, generateKey()));
+                eventPublisher.publishEvent(new UserKeyChangedEvent(userId));
+                return created;
+            });
+            logger.info("Nouvelle clé générée et sauvegardée pour l'utilisateur {}", userId);
+            return cacheUserKey(userId, userKey);
+        } catch (DataIntegrityViolationException e) {
+            // Une autre instance a créé la clé entre-temps : relire celle qui a été enregistrée
+            logger.info("Clé de l'utilisateur {} créée par une autre instance, relecture", userId);
+            Optional<UserKey> existing = keyProvisioningTransaction.execute(status -> userKeyRepository.findByUserId(userId));
+            if (existing != null && existing.isPresent()) {
+                return cacheUserKey(userId, existing.get());
             }
+            logger.error("Clé de l'utilisateur {} introuvable après un conflit d'insertion", userId);
+        } catch (Exception e) {
+            logger.error("Erreur lors de la génération d'une nouvelle clé pour l'utilisateur {}: {}", userId, e.getMessage());
+        }
+        unavailableKeyCache.put(userId, Boolean.TRUE);
+        return null;
+    }
+    
+    /**
+     * Met en cache une clé active, ou mémorise l'indisponibilité d'une clé désactivée
+     */
+    private SecretKey cacheUserKey(Long userId, UserKey userKey) {
+        if (!userKey.getIsActive()) {
+            logger.warn("La clé de l'utilisateur {} est désactivée", userId);
+            unavailableKeyCache.put(userId, Boolean.TRUE);
+            return null;
+        }
+        SecretKey key = toSecretKey(userKey.getEncryptionKey());
+        keyCache.put(userId, key);
+        // Une clé relue après un conflit d'insertion rend caduque une indisponibilité mémorisée entre-temps
+        unavailableKeyCache.invalidate(userId);
+        logger.debug("Clé récupérée de la base de données pour l'utilisateur {} et mise en cache", userId);
+        return key;
+    }
+    
+    /**
+     * Présente un message complet (entité ou message archivé) comme une projection lue pour l'un de ses participants
+     */
+    public static MessageView viewOf(Message message, Long userId) {
+        return new EntityMessageView(message, userId);
+    }
+
+    /**
+     * Présente une entité Message comme une projection, avec les données chiffrées propres à un participant
+     */
+    private static final class EntityMessageView implements MessageView {
+        private final Message message;
+        private final boolean forSender;
+        
+        EntityMessageView(Message message, Long userId) {
+            this.message = message;
+            this.forSender = message.getSender().getId().equals(userId);
+        }
+        
+        @Override
+        public Long getId() {
+            return message.getId();
+        }
+        
+        @Override
+        public Long getSenderId() {
+            return message.getSender().getId();
+        }
+        
+        @Override
+        public Long getRecipientId() {
+            return message.getRecipient().getId();
+        }
+        
+        @Override
+        public LocalDateTime getTimestamp() {
+            return message.getTimestamp();
+        }
+        
+        @Override
+        public MessageStatus getStatus() {
+            return message.getStatus();
+        }
+        
+        @Override
+        public Integer getFormatVersion() {
+            return message.getFormatVersion();
+        }
+        
+        @Override
+        public byte[] getPayload() {
+            return message.getPayload();
+        }
+        
+        @Override
+        public String getEncryptedContent() {
+            return forSender ? message.getEncryptedContentSender() : message.getEncryptedContentRecipient();
+        }
+        
+        @Override
+        public String getIv() {
+            return forSender ? message.getIvSender() : message.getIvRecipient();
         }
     }
 }
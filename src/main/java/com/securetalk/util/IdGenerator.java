@@ -0,0 +1,92 @@
+package com.securetalk.util;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Générateur d'identifiants croissants et ordonnés dans le temps, attribués par l'application.
+ *
+ * Un identifiant tient sur 53 bits : 41 bits de millisecondes depuis le 1er janvier 2024, 5 bits
+ * d'identifiant de nœud et 7 bits de séquence, soit 128 identifiants par milliseconde et par nœud.
+ * La limite de 53 bits garde les identifiants exacts une fois sérialisés en nombres JSON côté client.
+ *
+ * Le dernier couple (milliseconde, séquence) attribué est conservé dans un seul AtomicLong : chaque
+ * identifiant vaut au moins le précédent plus un, sans verrou. Une séquence épuisée déborde sur la
+ * milliseconde suivante et un recul de l'horloge système ne fait pas reculer les identifiants.
+ * Chaque instance de l'application doit disposer de son propre identifiant de nœud.
+ */
+@Component
+public class IdGenerator {
+
+    private static final Logger logger = LoggerFactory.getLogger(IdGenerator.class);
+
+    // 2024-01-01T00:00:00Z
+    public static final long EPOCH_MILLIS = 1_704_067_200_000L;
+
+    private static final int TIMESTAMP_BITS = 41;
+    private static final int NODE_BITS = 5;
+    private static final int SEQUENCE_BITS = 7;
+
+    public static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final long MAX_TIMESTAMP = (1L << TIMESTAMP_BITS) - 1;
+
+    // Instance configurée par Spring, utilisée par le générateur Hibernate des entités
+    private static volatile IdGenerator current;
+
+    @Value("${securetalk.id.node-id:0}")
+    private int nodeId;
+
+    // Dernier état attribué : (millisecondes depuis EPOCH_MILLIS << SEQUENCE_BITS) | séquence
+    private final AtomicLong lastState = new AtomicLong();
+
+    @PostConstruct
+    private void init() {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalStateException("securetalk.id.node-id doit être compris entre 0 et " + MAX_NODE_ID
+                    + " (valeur: " + nodeId + ")");
+        }
+        current = this;
+        logger.info("Générateur d'identifiants initialisé pour le nœud {}", nodeId);
+    }
+
+    /**
+     * Générateur configuré de l'application
+     * @throws IllegalStateException si le contexte Spring ne l'a pas encore initialisé
+     */
+    public static IdGenerator current() {
+        IdGenerator generator = current;
+        if (generator == null) {
+            throw new IllegalStateException("Générateur d'identifiants non initialisé");
+        }
+        return generator;
+    }
+
+    /**
+     * Retourne un nouvel identifiant, strictement supérieur à tous ceux déjà attribués par ce nœud
+     */
+    public long nextId() {
+        long now = (System.currentTimeMillis() - EPOCH_MILLIS) << SEQUENCE_BITS;
+        long state = lastState.updateAndGet(last -> Math.max(last + 1, now));
+
+        long timestamp = state >>> SEQUENCE_BITS;
+        if (timestamp > MAX_TIMESTAMP) {
+            throw new IllegalStateException("Capacité des identifiants dépassée");
+        }
+        return (timestamp << (NODE_BITS + SEQUENCE_BITS))
+                | ((long) nodeId << SEQUENCE_BITS)
+                | (state & SEQUENCE_MASK);
+    }
+
+    /**
+     * Instant de création encodé dans un identifiant, en millisecondes depuis l'époque Unix
+     */
+    public static long timestampOf(long id) {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH_MILLIS;
+    }
+}
@@ -0,0 +1,74 @@
+package com.securetalk.util;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Source de vecteurs d'initialisation AES-GCM non bloquante.
+ *
+ * Les IV suivent la construction déterministe de NIST SP 800-38D (section 8.2.1) :
+ * un champ fixe de 4 octets tiré au hasard au démarrage, suivi d'un compteur de 8 octets
+ * dont la valeur initiale est elle aussi aléatoire. Au sein d'un même processus, deux IV
+ * ne peuvent donc jamais être identiques. Entre processus ou redémarrages partageant une même
+ * clé utilisateur, une collision exige à la fois le même champ fixe (2^-32) et un chevauchement
+ * de fenêtres de compteur tirées dans un espace de 2^64, ce qui reste négligeable pour des clés
+ * qui chiffrent au plus quelques milliards de messages.
+ *
+ * Aucun appel à SecureRandom n'est effectué par IV ; l'aléa n'est consommé qu'à l'initialisation
+ * et pour la génération de clés, via un générateur DRBG par thread semé une seule fois.
+ */
+public final class IvGenerator {
+
+    public static final int IV_LENGTH = AesGcmEngine.IV_LENGTH;
+
+    private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(IvGenerator::newNonBlockingRandom);
+
+    private final int fixedField;
+    private final AtomicLong counter;
+
+    public IvGenerator() {
+        SecureRandom random = random();
+        this.fixedField = random.nextInt();
+        this.counter = new AtomicLong(random.nextLong());
+    }
+
+    /**
+     * Retourne un nouvel IV de 12 bytes
+     */
+    public byte[] nextIv() {
+        byte[] iv = new byte[IV_LENGTH];
+        nextIv(iv, 0);
+        return iv;
+    }
+
+    /**
+     * Écrit un nouvel IV de 12 bytes dans {@code dest} à partir de {@code offset}
+     */
+    public void nextIv(byte[] dest, int offset) {
+        long value = counter.getAndIncrement();
+        dest[offset] = (byte) (fixedField >>> 24);
+        dest[offset + 1] = (byte) (fixedField >>> 16);
+        dest[offset + 2] = (byte) (fixedField >>> 8);
+        dest[offset + 3] = (byte) fixedField;
+        for (int i = 0; i < 8; i++) {
+            dest[offset + 4 + i] = (byte) (value >>> (56 - 8 * i));
+        }
+    }
+
+    /**
+     * Générateur aléatoire cryptographique non bloquant propre au thread courant
+     */
+    public static SecureRandom random() {
+        return RANDOM.get();
+    }
+
+    private static SecureRandom newNonBlockingRandom() {
+        try {
+            // DRBG (NIST SP 800-90A) : semé une fois depuis l'entropie système, ne bloque plus ensuite
+            return SecureRandom.getInstance("DRBG");
+        } catch (NoSuchAlgorithmException e) {
+            return new SecureRandom();
+        }
+    }
+}
@@ -0,0 +1,596 @@
+package com.securetalk.util;
+
+import com.securetalk.model.Message;
+import com.securetalk.model.MessageStatus;
+import com.securetalk.model.User;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Archive des messages froids : une série de segments compressés en ajout seul par conversation.
+ *
+ * Les messages d'une conversation sont ajoutés dans l'ordre (timestamp, id), par blocs de
+ * {@code blockSize} messages compressés (Deflate). Un index clairsemé, une entrée de taille fixe
+ * par bloc, donne la position du bloc et ses bornes (premier et dernier message, IDs minimal et
+ * maximal) : une lecture ne décompresse que les blocs qui recouvrent la page demandée. Un segment
+ * est fermé au-delà de {@code segmentBytes} et le suivant est ouvert.
+ *
+ * Index et segments sont lus par projection en mémoire (mmap) : les pages lues restent dans le
+ * cache du système et non dans le tas de l'application. Les projections des conversations récemment
+ * lues sont conservées dans un cache borné.
+ *
+ * Un ajout écrit et force d'abord les blocs, puis les entrées d'index : après un arrêt brutal, un
+ * bloc sans entrée ou une entrée incomplète est ignoré à la lecture et écrasé à l'ajout suivant.
+ * Les ajouts sont sérialisés ; les lectures ne prennent aucun verrou.
+ *
+ * Le répertoire peut être partagé entre plusieurs processus à condition qu'un seul écrive à la fois
+ * (l'appelant en est responsable). Une projection en cache est revalidée à chaque lecture par la
+ * taille de l'index : un ajout fait par un autre processus entraîne une nouvelle projection.
+ */
+public class MessageArchive {
+
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final Pattern CONVERSATION_KEY = Pattern.compile("\\d+_\\d+");
+
+    // Entrée d'index : segment, position, taille compressée, taille brute, nombre de messages, CRC32 du bloc brut,
+    // puis premier et dernier message (horodatage en ns, id) et IDs minimal et maximal
+    private static final int ENTRY_SEGMENT = 0;
+    private static final int ENTRY_OFFSET = 4;
+    private static final int ENTRY_COMPRESSED_LENGTH = 12;
+    private static final int ENTRY_RAW_LENGTH = 16;
+    private static final int ENTRY_COUNT = 20;
+    private static final int ENTRY_CRC = 24;
+    private static final int ENTRY_FIRST_TIME = 28;
+    private static final int ENTRY_FIRST_ID = 36;
+    private static final int ENTRY_LAST_TIME = 44;
+    private static final int ENTRY_LAST_ID = 52;
+    private static final int ENTRY_MIN_ID = 60;
+    private static final int ENTRY_MAX_ID = 68;
+    private static final int ENTRY_LENGTH = 76;
+
+    private final Path directory;
+    private final int blockSize;
+    private final long segmentBytes;
+
+    private final BoundedCache<String, Conversation> mappedConversations;
+    // Incrémenté au début et à la fin de chaque ajout (impair pendant l'ajout) : une projection
+    // chargée pendant un ajout n'est pas mise en cache
+    private volatile long generation;
+
+    public MessageArchive(Path directory, int blockSize, long segmentBytes, int maxMappedConversations,
+                          Duration mappedConversationTtl) throws IOException {
+        this.directory = directory;
+        this.blockSize = blockSize;
+        this.segmentBytes = segmentBytes;
+        this.mappedConversations = new BoundedCache<>(maxMappedConversations, mappedConversationTtl);
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Position d'un message dans sa conversation
+     */
+    public record Position(LocalDateTime timestamp, long id) {
+    }
+
+    /**
+     * Dernier message archivé d'une conversation, ou null si elle n'a pas d'archive
+     */
+    public Position lastPosition(String conversationKey) {
+        Conversation conversation = open(conversationKey);
+        if (conversation == null || conversation.blocks == 0) {
+            return null;
+        }
+        int last = conversation.blocks - 1;
+        return new Position(toTimestamp(conversation.entryLong(last, ENTRY_LAST_TIME)),
+                conversation.entryLong(last, ENTRY_LAST_ID));
+    }
+
+    /**
+     * Ajoute des messages à l'archive de leur conversation
+     * @param messages Messages triés par (timestamp, id), tous postérieurs au dernier message archivé
+     * @throws IllegalArgumentException si l'ordre n'est pas respecté
+     */
+    public synchronized void append(String conversationKey, List<Message> messages) throws IOException {
+        if (messages.isEmpty()) {
+            return;
+        }
+        Path indexPath = indexPath(conversationKey);
+        Files.createDirectories(indexPath.getParent());
+        generation++;
+        try (FileChannel index = FileChannel.open(indexPath, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long entries = index.size() / ENTRY_LENGTH;
+            // Entrée incomplète laissée par un arrêt brutal
+            index.truncate(entries * ENTRY_LENGTH);
+
+            int segment = 0;
+            long segmentEnd = 0;
+            long lastTime = Long.MIN_VALUE;
+            long lastId = Long.MIN_VALUE;
+            if (entries > 0) {
+                ByteBuffer last = ByteBuffer.allocate(ENTRY_LENGTH);
+                index.read(last, (entries - 1) * ENTRY_LENGTH);
+                segment = last.getInt(ENTRY_SEGMENT);
+                segmentEnd = last.getLong(ENTRY_OFFSET) + last.getInt(ENTRY_COMPRESSED_LENGTH);
+                lastTime = last.getLong(ENTRY_LAST_TIME);
+                lastId = last.getLong(ENTRY_LAST_ID);
+            }
+            for (Message message : messages) {
+                long time = toNanos(message.getTimestamp());
+                if (compare(time, message.getId(), lastTime, lastId) <= 0) {
+                    throw new IllegalArgumentException("Message " + message.getId() + " antérieur à la fin de l'archive de " + conversationKey);
+                }
+                lastTime = time;
+                lastId = message.getId();
+            }
+
+            ByteBuffer newEntries = ByteBuffer.allocate(((messages.size() + blockSize - 1) / blockSize) * ENTRY_LENGTH);
+            FileChannel data = openSegment(conversationKey, segment, segmentEnd);
+            try {
+                for (int from = 0; from < messages.size(); from += blockSize) {
+                    List<Message> block = messages.subList(from, Math.min(from + blockSize, messages.size()));
+                    byte[] raw = encodeBlock(block);
+                    byte[] compressed = compress(raw);
+                    if (segmentEnd > 0 && segmentEnd + compressed.length > segmentBytes) {
+                        data.force(false);
+                        data.close();
+                        segment++;
+                        segmentEnd = 0;
+                        data = openSegment(conversationKey, segment, 0);
+                    }
+                    ByteBuffer buffer = ByteBuffer.wrap(compressed);
+                    long position = segmentEnd;
+                    while (buffer.hasRemaining()) {
+                        position += data.write(buffer, position);
+                    }
+                    newEntries.put(entry(segment, segmentEnd, compressed.length, raw, block));
+                    segmentEnd = position;
+                }
+                data.force(false);
+            } finally {
+                data.close();
+            }
+
+            newEntries.flip();
+            long position = entries * ENTRY_LENGTH;
+            while (newEntries.hasRemaining()) {
+                position += index.write(newEntries, position);
+            }
+            index.force(false);
+        } finally {
+            generation++;
+            mappedConversations.invalidate(conversationKey);
+        }
+    }
+
+    /**
+     * Messages antérieurs à une position, du plus récent au plus ancien
+     * @param before Position exclue, ou null pour lire depuis le dernier message archivé
+     */
+    public List<Message> readBefore(String conversationKey, Position before, int limit) {
+        Conversation conversation = open(conversationKey);
+        if (conversation == null || limit <= 0) {
+            return Collections.emptyList();
+        }
+        List<Message> result = new ArrayList<>(Math.min(limit, blockSize));
+        // Dernier bloc dont le premier message précède le curseur
+        int block = before == null ? conversation.blocks - 1
+                : conversation.lastBlockStartingBefore(toNanos(before.timestamp()), before.id());
+        for (; block >= 0 && result.size() < limit; block--) {
+            List<Message> messages = conversation.readBlock(block);
+            for (int i = messages.size() - 1; i >= 0 && result.size() < limit; i--) {
+                Message message = messages.get(i);
+                if (before == null || isBefore(message, before)) {
+                    result.add(message);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Messages postérieurs à une position, du plus ancien au plus récent
+     */
+    public List<Message> readAfter(String conversationKey, Position after, int limit) {
+        Conversation conversation = open(conversationKey);
+        if (conversation == null || limit <= 0) {
+            return Collections.emptyList();
+        }
+        List<Message> result = new ArrayList<>(Math.min(limit, blockSize));
+        // Premier bloc dont le dernier message suit le curseur
+        int block = conversation.firstBlockEndingAfter(toNanos(after.timestamp()), after.id());
+        for (; block < conversation.blocks && result.size() < limit; block++) {
+            for (Message message : conversation.readBlock(block)) {
+                if (result.size() < limit && isBefore(after, message)) {
+                    result.add(message);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Tous les messages archivés d'une conversation, du plus ancien au plus récent
+     */
+    public List<Message> readAll(String conversationKey) {
+        Conversation conversation = open(conversationKey);
+        if (conversation == null) {
+            return Collections.emptyList();
+        }
+        List<Message> result = new ArrayList<>();
+        for (int block = 0; block < conversation.blocks; block++) {
+            result.addAll(conversation.readBlock(block));
+        }
+        return result;
+    }
+
+    /**
+     * Recherche un message archivé ; seuls les blocs dont la plage d'IDs le contient sont lus
+     */
+    public Optional<Message> find(String conversationKey, long id) {
+        Conversation conversation = open(conversationKey);
+        if (conversation == null) {
+            return Optional.empty();
+        }
+        for (int block = conversation.blocks - 1; block >= 0; block--) {
+            if (id >= conversation.entryLong(block, ENTRY_MIN_ID) && id <= conversation.entryLong(block, ENTRY_MAX_ID)) {
+                for (Message message : conversation.readBlock(block)) {
+                    if (message.getId() == id) {
+                        return Optional.of(message);
+                    }
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Parcourt toutes les conversations archivées, bloc par bloc
+     */
+    public void forEachConversation(Consumer<List<Message>> consumer) throws IOException {
+        try (DirectoryStream<Path> buckets = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path bucket : buckets) {
+                try (DirectoryStream<Path> indexes = Files.newDirectoryStream(bucket, "*" + INDEX_SUFFIX)) {
+                    for (Path indexPath : indexes) {
+                        String name = indexPath.getFileName().toString();
+                        consumer.accept(readAll(name.substring(0, name.length() - INDEX_SUFFIX.length())));
+                    }
+                }
+            }
+        }
+    }
+
+    public BoundedCache.CacheStats getMappedConversationStats() {
+        return mappedConversations.stats();
+    }
+
+    private Conversation open(String conversationKey) {
+        Conversation conversation = mappedConversations.get(conversationKey);
+        if (conversation != null) {
+            if (isCurrent(conversationKey, conversation)) {
+                return conversation;
+            }
+            mappedConversations.invalidate(conversationKey);
+        }
+        long loadGeneration = generation;
+        try {
+            conversation = map(conversationKey);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Lecture de l'archive de la conversation " + conversationKey + " impossible", e);
+        }
+        if (conversation != null && loadGeneration == generation && (loadGeneration & 1) == 0) {
+            mappedConversations.put(conversationKey, conversation);
+        }
+        return conversation;
+    }
+
+    /**
+     * Vérifie qu'aucun bloc n'a été ajouté ou retiré depuis la projection, par un autre processus
+     * partageant le répertoire
+     */
+    private boolean isCurrent(String conversationKey, Conversation conversation) {
+        try {
+            return Files.size(indexPath(conversationKey)) / ENTRY_LENGTH == conversation.blocks;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private Conversation map(String conversationKey) throws IOException {
+        Path indexPath = indexPath(conversationKey);
+        MappedByteBuffer index;
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size() - channel.size() % ENTRY_LENGTH);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        int blocks = index.capacity() / ENTRY_LENGTH;
+        int segments = blocks == 0 ? 0 : index.getInt((blocks - 1) * ENTRY_LENGTH + ENTRY_SEGMENT) + 1;
+        MappedByteBuffer[] data = new MappedByteBuffer[segments];
+        for (int segment = 0; segment < segments; segment++) {
+            try (FileChannel channel = FileChannel.open(segmentPath(conversationKey, segment), StandardOpenOption.READ)) {
+                data[segment] = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+        return new Conversation(index, blocks, data);
+    }
+
+    private FileChannel openSegment(String conversationKey, int segment, long end) throws IOException {
+        FileChannel channel = FileChannel.open(segmentPath(conversationKey, segment),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // Bloc écrit sans entrée d'index par un arrêt brutal
+        channel.truncate(end);
+        // Segment suivant ouvert sans qu'aucune entrée n'y renvoie
+        Files.deleteIfExists(segmentPath(conversationKey, segment + 1));
+        return channel;
+    }
+
+    private Path indexPath(String conversationKey) {
+        return bucket(conversationKey).resolve(conversationKey + INDEX_SUFFIX);
+    }
+
+    private Path segmentPath(String conversationKey, int segment) {
+        return bucket(conversationKey).resolve(String.format("%s.%06d%s", conversationKey, segment, SEGMENT_SUFFIX));
+    }
+
+    // Répartit les conversations dans 256 sous-répertoires
+    private Path bucket(String conversationKey) {
+        if (!CONVERSATION_KEY.matcher(conversationKey).matches()) {
+            throw new IllegalArgumentException("Clé de conversation invalide: " + conversationKey);
+        }
+        return directory.resolve(String.format("%02x", conversationKey.hashCode() & 0xFF));
+    }
+
+    private static ByteBuffer entry(int segment, long offset, int compressedLength, byte[] raw, List<Message> block) {
+        CRC32 crc = new CRC32();
+        crc.update(raw);
+        Message first = block.get(0);
+        Message last = block.get(block.size() - 1);
+        long minId = Long.MAX_VALUE;
+        long maxId = Long.MIN_VALUE;
+        for (Message message : block) {
+            minId = Math.min(minId, message.getId());
+            maxId = Math.max(maxId, message.getId());
+        }
+        return ByteBuffer.allocate(ENTRY_LENGTH)
+                .putInt(segment)
+                .putLong(offset)
+                .putInt(compressedLength)
+                .putInt(raw.length)
+                .putInt(block.size())
+                .putInt((int) crc.getValue())
+                .putLong(toNanos(first.getTimestamp()))
+                .putLong(first.getId())
+                .putLong(toNanos(last.getTimestamp()))
+                .putLong(last.getId())
+                .putLong(minId)
+                .putLong(maxId)
+                .flip();
+    }
+
+    private static byte[] encodeBlock(List<Message> block) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (Message message : block) {
+            out.writeLong(message.getId());
+            out.writeLong(message.getSender().getId());
+            out.writeLong(message.getRecipient().getId());
+            out.writeLong(toNanos(message.getTimestamp()));
+            writeString(out, message.getStatus() != null ? message.getStatus().name() : null);
+            out.writeInt(message.getFormatVersion() != null ? message.getFormatVersion() : -1);
+            writeString(out, message.getEncryptedContentRecipient());
+            writeString(out, message.getEncryptedContentSender());
+            writeString(out, message.getIvRecipient());
+            writeString(out, message.getIvSender());
+            writeBytes(out, message.getPayload());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static List<Message> decodeBlock(byte[] raw, int count) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(raw));
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Message message = new Message();
+            message.setId(in.readLong());
+            message.setSender(userRef(in.readLong()));
+            message.setRecipient(userRef(in.readLong()));
+            message.setConversationKey(Message.conversationKey(message.getSender().getId(), message.getRecipient().getId()));
+            message.setTimestamp(toTimestamp(in.readLong()));
+            String status = readString(in);
+            message.setStatus(status != null ? MessageStatus.valueOf(status) : null);
+            int formatVersion = in.readInt();
+            message.setFormatVersion(formatVersion >= 0 ? formatVersion : null);
+            message.setEncryptedContentRecipient(readString(in));
+            message.setEncryptedContentSender(readString(in));
+            message.setIvRecipient(readString(in));
+            message.setIvSender(readString(in));
+            message.setPayload(readBytes(in));
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value != null ? value.getBytes(StandardCharsets.UTF_8) : null);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(value.length);
+            out.write(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] value = readBytes(in);
+        return value != null ? new String(value, StandardCharsets.UTF_8) : null;
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        in.readFully(value);
+        return value;
+    }
+
+    private static byte[] compress(byte[] raw) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 64);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static boolean isBefore(Message message, Position position) {
+        return compare(toNanos(message.getTimestamp()), message.getId(), toNanos(position.timestamp()), position.id()) < 0;
+    }
+
+    private static boolean isBefore(Position position, Message message) {
+        return compare(toNanos(position.timestamp()), position.id(), toNanos(message.getTimestamp()), message.getId()) < 0;
+    }
+
+    private static int compare(long timeA, long idA, long timeB, long idB) {
+        int byTime = Long.compare(timeA, timeB);
+        return byTime != 0 ? byTime : Long.compare(idA, idB);
+    }
+
+    private static long toNanos(LocalDateTime timestamp) {
+        return timestamp.toEpochSecond(ZoneOffset.UTC) * 1_000_000_000L + timestamp.getNano();
+    }
+
+    private static LocalDateTime toTimestamp(long nanos) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(nanos, 1_000_000_000L),
+                (int) Math.floorMod(nanos, 1_000_000_000L), ZoneOffset.UTC);
+    }
+
+    private static User userRef(long id) {
+        User user = new User();
+        user.setId(id);
+        return user;
+    }
+
+    /**
+     * Projection en mémoire de l'index et des segments d'une conversation
+     */
+    private static final class Conversation {
+        private final MappedByteBuffer index;
+        private final int blocks;
+        private final MappedByteBuffer[] segments;
+
+        Conversation(MappedByteBuffer index, int blocks, MappedByteBuffer[] segments) {
+            this.index = index;
+            this.blocks = blocks;
+            this.segments = segments;
+        }
+
+        long entryLong(int block, int field) {
+            return index.getLong(block * ENTRY_LENGTH + field);
+        }
+
+        int entryInt(int block, int field) {
+            return index.getInt(block * ENTRY_LENGTH + field);
+        }
+
+        int lastBlockStartingBefore(long time, long id) {
+            int low = 0;
+            int high = blocks - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (compare(entryLong(mid, ENTRY_FIRST_TIME), entryLong(mid, ENTRY_FIRST_ID), time, id) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return high;
+        }
+
+        int firstBlockEndingAfter(long time, long id) {
+            int low = 0;
+            int high = blocks - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (compare(entryLong(mid, ENTRY_LAST_TIME), entryLong(mid, ENTRY_LAST_ID), time, id) <= 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+        List<Message> readBlock(int block) {
+            int rawLength = entryInt(block, ENTRY_RAW_LENGTH);
+            ByteBuffer compressed = segments[entryInt(block, ENTRY_SEGMENT)]
+                    .slice((int) entryLong(block, ENTRY_OFFSET), entryInt(block, ENTRY_COMPRESSED_LENGTH));
+            byte[] raw = new byte[rawLength];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(compressed);
+                int read = 0;
+                while (read < rawLength && !inflater.finished()) {
+                    int inflated = inflater.inflate(raw, read, rawLength - read);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    read += inflated;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(raw, 0, read);
+                if (read != rawLength || (int) crc.getValue() != entryInt(block, ENTRY_CRC)) {
+                    throw new IllegalStateException("Bloc d'archive altéré (bloc " + block + ")");
+                }
+                return decodeBlock(raw, entryInt(block, ENTRY_COUNT));
+            } catch (DataFormatException e) {
+                throw new IllegalStateException("Bloc d'archive altéré (bloc " + block + ")", e);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.securetalk.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Journal local en ajout seul, découpé en segments, qui rend durables des enregistrements
+ * avant leur écriture différée en base.
+ *
+ * Un enregistrement est durable au retour de {@link #append(byte[])} : les appels concurrents
+ * partagent le même fsync (un seul appelant force le fichier pour tous les enregistrements déjà
+ * écrits), ce qui limite le nombre de fsync au débit du disque et non au nombre de messages.
+ * Chaque enregistrement est préfixé de sa longueur et de son CRC32 : une fin de fichier tronquée
+ * par un arrêt brutal est détectée et ignorée à la relecture.
+ *
+ * Un segment fermé est supprimé dès que tous ses enregistrements ont été libérés par
+ * {@link #release(long, int)}, c'est-à-dire écrits en base.
+ */
+public class MessageJournal implements Closeable {
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int HEADER_LENGTH = Integer.BYTES + Long.BYTES;
+
+    private final Path directory;
+    private final long segmentSize;
+
+    // Écriture et rotation des segments
+    private final Object appendLock = new Object();
+    // Un seul fsync à la fois ; les appelants suivants profitent de celui en cours
+    private final Object syncLock = new Object();
+
+    private FileChannel channel;
+    private long segment;
+    private long segmentBytes;
+    private long appendedCount;
+    private final AtomicLong syncedCount = new AtomicLong();
+
+    // Enregistrements non encore libérés, par segment
+    private final Map<Long, Integer> pendingBySegment = new HashMap<>();
+    private final List<Path> recoveredSegments = new ArrayList<>();
+
+    public MessageJournal(Path directory, long segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+
+        long lastSegment = 0;
+        for (Map.Entry<Long, Path> existing : listSegments().entrySet()) {
+            recoveredSegments.add(existing.getValue());
+            lastSegment = existing.getKey();
+        }
+        openSegment(lastSegment + 1);
+    }
+
+    /**
+     * Enregistrements valides des segments laissés par l'exécution précédente, dans l'ordre d'écriture
+     */
+    public List<byte[]> recover() throws IOException {
+        List<byte[]> records = new ArrayList<>();
+        for (Path path : recoveredSegments) {
+            readSegment(path, records);
+        }
+        return records;
+    }
+
+    /**
+     * Supprime les segments de l'exécution précédente, une fois leurs enregistrements écrits en base
+     */
+    public void discardRecovered() throws IOException {
+        for (Path path : recoveredSegments) {
+            Files.deleteIfExists(path);
+        }
+        recoveredSegments.clear();
+    }
+
+    /**
+     * Ajoute un enregistrement et attend qu'il soit sur disque
+     * @return Segment de l'enregistrement, à passer à {@link #release(long, int)}
+     */
+    public long append(byte[] record) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + record.length);
+        buffer.putInt(record.length).putLong(crc.getValue()).put(record).flip();
+
+        long recordSegment;
+        long sequence;
+        synchronized (appendLock) {
+            if (segmentBytes > 0 && segmentBytes + buffer.remaining() > segmentSize) {
+                rotate();
+            }
+            while (buffer.hasRemaining()) {
+                segmentBytes += channel.write(buffer);
+            }
+            sequence = ++appendedCount;
+            recordSegment = segment;
+            pendingBySegment.merge(segment, 1, Integer::sum);
+        }
+
+        sync(sequence);
+        return recordSegment;
+    }
+
+    /**
+     * Indique que des enregistrements d'un segment ont été écrits en base
+     */
+    public void release(long recordSegment, int count) throws IOException {
+        synchronized (appendLock) {
+            Integer remaining = pendingBySegment.merge(recordSegment, -count, Integer::sum);
+            if (remaining != null && remaining <= 0) {
+                pendingBySegment.remove(recordSegment);
+                if (recordSegment != segment) {
+                    Files.deleteIfExists(segmentPath(recordSegment));
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (appendLock) {
+            channel.force(false);
+            channel.close();
+            if (!pendingBySegment.containsKey(segment)) {
+                Files.deleteIfExists(segmentPath(segment));
+            }
+        }
+    }
+
+    private void sync(long sequence) throws IOException {
+        synchronized (syncLock) {
+            if (syncedCount.get() >= sequence) {
+                return; // Écrit sur disque par le fsync d'un autre appelant
+            }
+            long target;
+            FileChannel current;
+            synchronized (appendLock) {
+                target = appendedCount;
+                current = channel;
+            }
+            try {
+                current.force(false);
+            } catch (ClosedChannelException e) {
+                // Segment fermé par une rotation, qui l'a forcé sur disque avant fermeture
+            }
+            syncedCount.accumulateAndGet(target, Math::max);
+        }
+    }
+
+    // Appelé sous appendLock
+    private void rotate() throws IOException {
+        channel.force(false);
+        channel.close();
+        syncedCount.accumulateAndGet(appendedCount, Math::max);
+        if (!pendingBySegment.containsKey(segment)) {
+            Files.deleteIfExists(segmentPath(segment));
+        }
+        openSegment(segment + 1);
+    }
+
+    private void openSegment(long number) throws IOException {
+        segment = number;
+        segmentBytes = 0;
+        channel = FileChannel.open(segmentPath(number),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    private Map<Long, Path> listSegments() throws IOException {
+        Map<Long, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    segments.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length())), path);
+                } catch (NumberFormatException e) {
+                    // Fichier étranger au journal
+                }
+            }
+        }
+        return segments;
+    }
+
+    private static void readSegment(Path path, List<byte[]> records) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(path));
+        while (data.remaining() >= HEADER_LENGTH) {
+            int length = data.getInt();
+            long checksum = data.getLong();
+            if (length < 0 || length > data.remaining()) {
+                return; // Enregistrement tronqué par un arrêt brutal
+            }
+            byte[] record = new byte[length];
+            data.get(record);
+            CRC32 crc = new CRC32();
+            crc.update(record);
+            if (crc.getValue() != checksum) {
+                return;
+            }
+            records.add(record);
+        }
+    }
+}
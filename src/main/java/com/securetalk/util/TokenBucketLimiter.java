@@ -0,0 +1,118 @@
+package com.securetalk.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limiteur de débit par clé (seau à jetons), sans verrou.
+ *
+ * L'état d'un seau tient dans un seul AtomicLong : l'instant du dernier remplissage (ms depuis la
+ * création du limiteur, 44 bits) et le nombre de jetons restants en millièmes de jeton (20 bits).
+ * Une demande recalcule le remplissage depuis cet instant et prend un jeton par compareAndSet ; un
+ * refus ne modifie pas l'état.
+ *
+ * Un seau inactif depuis le temps nécessaire à le remplir est plein, c'est-à-dire équivalent à un
+ * seau absent : {@link #evictIdle()} le retire de la table. Une demande concurrente du retrait peut
+ * obtenir au plus un jeton de plus que la capacité.
+ *
+ * @param <K> Type des clés
+ */
+public class TokenBucketLimiter<K> {
+
+    private static final int TOKEN_BITS = 20;
+    private static final long TOKEN_MASK = (1L << TOKEN_BITS) - 1;
+    // Un jeton, en millièmes
+    private static final long ONE_TOKEN = 1000;
+
+    private final ConcurrentHashMap<K, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final long capacity;
+    private final long refillPerMillis;
+    private final long idleMillis;
+    private final long originNanos = System.nanoTime();
+
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    /**
+     * @param burst Nombre de jetons d'un seau plein (demandes acceptées d'affilée)
+     * @param perSecond Jetons ajoutés par seconde
+     */
+    public TokenBucketLimiter(int burst, int perSecond) {
+        if (burst <= 0 || perSecond <= 0) {
+            throw new IllegalArgumentException("La capacité et le débit du limiteur doivent être positifs");
+        }
+        if (burst * ONE_TOKEN > TOKEN_MASK) {
+            throw new IllegalArgumentException("Capacité du limiteur trop grande (maximum " + TOKEN_MASK / ONE_TOKEN + ")");
+        }
+        this.capacity = burst * ONE_TOKEN;
+        // perSecond jetons par seconde = perSecond millièmes de jeton par milliseconde
+        this.refillPerMillis = perSecond;
+        this.idleMillis = (capacity + refillPerMillis - 1) / refillPerMillis;
+    }
+
+    /**
+     * Prend un jeton dans le seau d'une clé
+     * @param key Clé limitée
+     * @return 0 si la demande est acceptée, sinon le délai en millisecondes avant qu'un jeton soit disponible
+     */
+    public long tryAcquire(K key) {
+        AtomicLong bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(pack(now(), capacity)));
+        while (true) {
+            long now = now();
+            long state = bucket.get();
+            long tokens = refill(state, now);
+            if (tokens < ONE_TOKEN) {
+                rejected.increment();
+                return (ONE_TOKEN - tokens + refillPerMillis - 1) / refillPerMillis;
+            }
+            if (bucket.compareAndSet(state, pack(now, tokens - ONE_TOKEN))) {
+                allowed.increment();
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Retire les seaux redevenus pleins
+     * @return Nombre de seaux retirés
+     */
+    public int evictIdle() {
+        long now = now();
+        int removed = 0;
+        for (var entry : buckets.entrySet()) {
+            long state = entry.getValue().get();
+            if (now - (state >>> TOKEN_BITS) >= idleMillis && buckets.remove(entry.getKey(), entry.getValue())) {
+                removed++;
+            }
+        }
+        evicted.add(removed);
+        return removed;
+    }
+
+    public Stats stats() {
+        return new Stats(allowed.sum(), rejected.sum(), evicted.sum(), buckets.size());
+    }
+
+    public record Stats(long allowed, long rejected, long evicted, long size) {
+    }
+
+    private long refill(long state, long now) {
+        long elapsed = Math.max(0, now - (state >>> TOKEN_BITS));
+        long tokens = state & TOKEN_MASK;
+        // Plafonner l'écart avant multiplication : un seau plein ne déborde pas
+        if (elapsed >= idleMillis) {
+            return capacity;
+        }
+        return Math.min(capacity, tokens + elapsed * refillPerMillis);
+    }
+
+    private long now() {
+        return (System.nanoTime() - originNanos) / 1_000_000;
+    }
+
+    private static long pack(long millis, long tokens) {
+        return (millis << TOKEN_BITS) | tokens;
+    }
+}
@@ -0,0 +1,9 @@
+package com.securetalk.util;
+
+/**
+ * Publié après la création, la désactivation ou le remplacement de la clé de chiffrement d'un
+ * utilisateur, pour que les clés (ou l'absence de clé) déjà mises en cache ne soient plus servies
+ * @param userId ID de l'utilisateur
+ */
+public record UserKeyChangedEvent(Long userId) {
+}
@@ -0,0 +1,171 @@
+package com.securetalk.config;
+
+import com.securetalk.security.services.UserDetailsImpl;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Routage des transactions entre deux bases H2 embarquées, l'une jouant la primaire, l'autre la réplique.
+ * Chaque base contient une ligne qui l'identifie, ce qui permet de savoir où une requête a été servie.
+ */
+class ReplicaRoutingDataSourceTest {
+
+    private DataSource primary;
+    private DataSource replica;
+    private ReplicaRoutingDataSource routing;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate readWrite;
+    private TransactionTemplate readOnly;
+    private UsernamePasswordAuthenticationToken currentAuthentication;
+
+    @BeforeEach
+    void setUp() {
+        String run = UUID.randomUUID().toString();
+        primary = database("jdbc:h2:mem:primary-" + run + ";DB_CLOSE_DELAY=-1", "primary");
+        replica = database("jdbc:h2:mem:replica-" + run + ";DB_CLOSE_DELAY=-1", "replica");
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+        if (routing != null) {
+            routing.destroy();
+        }
+    }
+
+    @Test
+    void sendsReadOnlyTransactionsToTheReplica() {
+        initRouting(0);
+        authenticate(1L);
+
+        assertThat(nodeIn(readOnly)).isEqualTo("replica");
+        assertThat(nodeIn(readWrite)).isEqualTo("primary");
+        assertThat(node()).isEqualTo("primary");
+    }
+
+    @Test
+    void pinsReadsToThePrimaryOnlyAfterTheWriteCommits() {
+        initRouting(0);
+        authenticate(1L);
+
+        readWrite.executeWithoutResult(status -> {
+            jdbcTemplate.update("INSERT INTO notes (text) VALUES ('écrit')");
+            routing.recordWrite();
+            // Transaction encore ouverte : rien n'est validé, la réplique reste utilisable
+            assertThat(readOnlyOutsideTransaction()).isEqualTo("replica");
+        });
+
+        assertThat(nodeIn(readOnly)).isEqualTo("primary");
+        assertThat(routing.getStats().get("readYourWritesReads")).isEqualTo(1L);
+
+        // Les autres utilisateurs continuent de lire sur la réplique
+        authenticate(2L);
+        assertThat(nodeIn(readOnly)).isEqualTo("replica");
+    }
+
+    @Test
+    void doesNotPinReadsAfterARollback() {
+        initRouting(0);
+        authenticate(1L);
+
+        readWrite.executeWithoutResult(status -> {
+            jdbcTemplate.update("INSERT INTO notes (text) VALUES ('annulé')");
+            routing.recordWrite();
+            status.setRollbackOnly();
+        });
+
+        assertThat(nodeIn(readOnly)).isEqualTo("replica");
+        assertThat(new JdbcTemplate(primary).queryForObject("SELECT COUNT(*) FROM notes", Long.class)).isZero();
+    }
+
+    @Test
+    void doesNotPinReadsAfterAWriteTransactionThatChangedNothing() {
+        initRouting(0);
+        authenticate(1L);
+
+        readWrite.executeWithoutResult(status -> {
+            assertThat(jdbcTemplate.update("UPDATE notes SET text = 'lu' WHERE id = -1")).isZero();
+        });
+
+        assertThat(nodeIn(readOnly)).isEqualTo("replica");
+        assertThat(routing.getStats().get("readYourWritesReads")).isEqualTo(0L);
+    }
+
+    @Test
+    void fallsBackToThePrimaryWhenTheReplicaHasNoHeartbeat() {
+        // La réplique n'a pas de table replication_heartbeat : son retard ne peut pas être mesuré
+        initRouting(1000);
+        authenticate(1L);
+
+        assertThat(nodeIn(readOnly)).isEqualTo("primary");
+        assertThat(routing.getStats().get("primaryReads")).isEqualTo(1L);
+    }
+
+    private void initRouting(long maxLagMs) {
+        routing = new ReplicaRoutingDataSource(primary, Map.of("replica-0", replica), maxLagMs, 50, 5000, 100);
+        routing.afterPropertiesSet();
+        DataSource dataSource = new LazyConnectionDataSourceProxy(routing);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+        readWrite = new TransactionTemplate(transactionManager);
+        readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+    }
+
+    private String node() {
+        return jdbcTemplate.queryForObject("SELECT name FROM node", String.class);
+    }
+
+    private String nodeIn(TransactionTemplate transactionTemplate) {
+        return transactionTemplate.execute(status -> node());
+    }
+
+    /**
+     * Lecture en lecture seule depuis un autre thread, donc hors de la transaction en cours
+     */
+    private String readOnlyOutsideTransaction() {
+        String[] result = new String[1];
+        Thread thread = new Thread(() -> {
+            SecurityContextHolder.getContext().setAuthentication(currentAuthentication);
+            result[0] = nodeIn(readOnly);
+        });
+        thread.start();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return result[0];
+    }
+
+    private void authenticate(Long userId) {
+        UserDetailsImpl user = new UserDetailsImpl(userId, "user" + userId, "user" + userId + "@example.com",
+                "secret", List.of());
+        currentAuthentication = new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities());
+        SecurityContextHolder.getContext().setAuthentication(currentAuthentication);
+    }
+
+    private static DataSource database(String url, String name) {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(url, "sa", "");
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE node (name VARCHAR(20))");
+        jdbcTemplate.execute("CREATE TABLE notes (id BIGINT AUTO_INCREMENT PRIMARY KEY, text VARCHAR(50))");
+        jdbcTemplate.update("INSERT INTO node (name) VALUES (?)", name);
+        return dataSource;
+    }
+}
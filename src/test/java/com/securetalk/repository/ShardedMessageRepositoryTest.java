@@ -0,0 +1,125 @@
+package com.securetalk.repository;
+
+import com.securetalk.model.Message;
+import com.securetalk.model.User;
+import com.securetalk.repository.ShardedMessageRepository.Shard;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Répartition des messages sur plusieurs bases H2 embarquées (mode H2 standard, sans MODE=MySQL)
+ */
+class ShardedMessageRepositoryTest {
+
+    private static final int SHARD_COUNT = 3;
+
+    private List<String> urls;
+    private ShardedMessageRepository repository;
+    private long nextId = 1;
+
+    @BeforeEach
+    void setUp() {
+        String run = UUID.randomUUID().toString();
+        urls = IntStream.range(0, SHARD_COUNT)
+                .mapToObj(i -> "jdbc:h2:mem:shard-" + i + "-" + run + ";DB_CLOSE_DELAY=-1")
+                .toList();
+        repository = newRepository(urls);
+    }
+
+    @AfterEach
+    void tearDown() {
+        repository.close();
+    }
+
+    @Test
+    void createsSchemaAgainOnExistingShards() {
+        ShardedMessageRepository second = newRepository(urls);
+        try {
+            Long indexes = second.getShards().get(0).jdbcOperations().queryForObject(
+                    "SELECT COUNT(*) FROM INFORMATION_SCHEMA.INDEXES WHERE TABLE_NAME = 'MESSAGES' " +
+                    "AND INDEX_NAME LIKE 'IDX_MESSAGES_%'", Long.class);
+            assertThat(indexes).isEqualTo(3);
+        } finally {
+            second.close();
+        }
+    }
+
+    @Test
+    void storesEachConversationOnItsOwnShard() {
+        List<Message> messages = new ArrayList<>();
+        for (long partner = 2; partner <= 31; partner++) {
+            messages.add(message(1L, partner, LocalDateTime.of(2024, 1, 1, 10, 0)));
+            messages.add(message(partner, 1L, LocalDateTime.of(2024, 1, 1, 10, 1)));
+        }
+
+        assertThat(repository.insertAll(messages)).isEqualTo(messages.size());
+
+        int usedShards = 0;
+        for (Shard shard : repository.getShards()) {
+            List<String> keys = shard.jdbcOperations().queryForList(
+                    "SELECT DISTINCT conversation_key FROM messages", String.class);
+            keys.forEach(key -> assertThat(repository.shardFor(key)).isSameAs(shard));
+            usedShards += keys.isEmpty() ? 0 : 1;
+        }
+        assertThat(usedShards).isGreaterThan(1);
+
+        String key = Message.conversationKey(1L, 7L);
+        List<MessageView> latest = repository.findConversationLatest(key, 1L, 10);
+        assertThat(latest).extracting(MessageView::getSenderId).containsExactly(7L, 1L);
+        // Agrégat réparti sur toutes les bases : un sens de conversation par ligne, sans doublon
+        assertThat(repository.summarizeByDirection()).hasSize(messages.size());
+    }
+
+    @Test
+    void insertAllSkipsMessagesAlreadyStored() {
+        List<Message> messages = new ArrayList<>();
+        for (long partner = 2; partner <= 11; partner++) {
+            messages.add(message(1L, partner, LocalDateTime.of(2024, 1, 1, 10, 0)));
+        }
+
+        // Essai précédent validé sur une partie des bases seulement
+        assertThat(repository.insertAll(messages.subList(0, 4))).isEqualTo(4);
+        assertThat(repository.insertAll(messages)).isEqualTo(6);
+        assertThat(repository.insertAll(messages)).isZero();
+
+        List<Long> ids = messages.stream().map(Message::getId).toList();
+        assertThat(repository.findExistingIds(ids)).containsExactlyInAnyOrderElementsOf(ids);
+        assertThat(repository.findAllById(ids)).hasSize(ids.size());
+    }
+
+    private static ShardedMessageRepository newRepository(List<String> urls) {
+        ShardedMessageRepository repository = new ShardedMessageRepository();
+        ReflectionTestUtils.setField(repository, "shardUrls", urls);
+        ReflectionTestUtils.setField(repository, "username", "sa");
+        ReflectionTestUtils.setField(repository, "password", "");
+        ReflectionTestUtils.setField(repository, "driverClassName", "org.h2.Driver");
+        ReflectionTestUtils.setField(repository, "poolSize", 2);
+        ReflectionTestUtils.setField(repository, "virtualNodes", 160);
+        repository.init();
+        return repository;
+    }
+
+    private Message message(Long senderId, Long recipientId, LocalDateTime timestamp) {
+        Message message = new Message(user(senderId), user(recipientId), "contenu-destinataire", "iv-destinataire",
+                "contenu-expediteur", "iv-expediteur");
+        message.setId(nextId++);
+        message.setTimestamp(timestamp);
+        return message;
+    }
+
+    private static User user(Long id) {
+        User user = new User();
+        user.setId(id);
+        return user;
+    }
+}
@@ -0,0 +1,61 @@
+package com.securetalk.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Éviction GCLOCK du cache borné
+ */
+class BoundedCacheTest {
+
+    @Test
+    void keepsTheEntryJustInsertedWhenEvicting() {
+        // L'ordre de parcours de l'aiguille dépend du hachage des clés : plusieurs jeux de clés
+        for (int round = 0; round < 200; round++) {
+            BoundedCache<String, Integer> cache = new BoundedCache<>(4, Duration.ofMinutes(1));
+            for (int i = 0; i < 4; i++) {
+                cache.put(round + "-" + i, i);
+            }
+
+            cache.put(round + "-new", 4);
+
+            assertThat(cache.size()).isEqualTo(4);
+            assertThat(cache.get(round + "-new")).isEqualTo(4);
+            assertThat(cache.stats().evictions()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void evictsColdEntriesBeforeFrequentlyReadOnes() {
+        BoundedCache<String, Integer> cache = new BoundedCache<>(10, Duration.ofMinutes(1));
+        for (int i = 0; i < 5; i++) {
+            cache.put("chaude-" + i, i);
+            for (int access = 0; access < 3; access++) {
+                cache.get("chaude-" + i);
+            }
+        }
+
+        // Parcours d'entrées lues une seule fois pendant que les entrées chaudes restent utilisées
+        for (int i = 0; i < 100; i++) {
+            cache.put("froide-" + i, i);
+            for (int hot = 0; hot < 5; hot++) {
+                assertThat(cache.get("chaude-" + hot)).isEqualTo(hot);
+            }
+        }
+        assertThat(cache.size()).isEqualTo(10);
+        assertThat(cache.stats().evictions()).isEqualTo(95);
+    }
+
+    @Test
+    void expiredEntriesAreNotReturned() throws InterruptedException {
+        BoundedCache<String, Integer> cache = new BoundedCache<>(10, Duration.ofMinutes(1));
+        cache.put("courte", 1, Duration.ofMillis(1));
+        Thread.sleep(5);
+
+        assertThat(cache.get("courte")).isNull();
+        assertThat(cache.stats().expirations()).isEqualTo(1);
+    }
+}
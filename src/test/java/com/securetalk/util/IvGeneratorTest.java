@@ -0,0 +1,128 @@
+package com.securetalk.util;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Construction déterministe des IV : champ fixe de 4 octets suivi d'un compteur de 8 octets (gros-boutiste)
+ */
+class IvGeneratorTest {
+
+    @Test
+    void generatesUniqueIvsAcrossThreads() throws Exception {
+        IvGenerator generator = new IvGenerator();
+        int threads = 8;
+        int perThread = 50_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<List<byte[]>>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                Callable<List<byte[]>> task = () -> {
+                    start.await();
+                    List<byte[]> ivs = new ArrayList<>(perThread);
+                    for (int i = 0; i < perThread; i++) {
+                        ivs.add(generator.nextIv());
+                    }
+                    return ivs;
+                };
+                futures.add(executor.submit(task));
+            }
+            start.countDown();
+
+            Set<ByteBuffer> ivs = new HashSet<>();
+            Set<Long> counters = new HashSet<>();
+            for (Future<List<byte[]>> future : futures) {
+                for (byte[] iv : future.get(30, TimeUnit.SECONDS)) {
+                    assertThat(iv).hasSize(IvGenerator.IV_LENGTH);
+                    ivs.add(ByteBuffer.wrap(iv));
+                    counters.add(counter(iv));
+                }
+            }
+            assertThat(ivs).hasSize(threads * perThread);
+            // Aucune valeur du compteur n'est sautée ni réutilisée : elles forment une plage contiguë
+            long next = counter(generator.nextIv());
+            assertThat(counters).hasSize(threads * perThread)
+                    .allMatch(value -> next - value >= 1 && next - value <= threads * perThread);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void writesFixedFieldThenBigEndianCounter() {
+        IvGenerator generator = new IvGenerator();
+        ReflectionTestUtils.setField(generator, "fixedField", 0x0A0B0C0D);
+        ReflectionTestUtils.setField(generator, "counter", new AtomicLong(0x0102030405060708L));
+
+        assertThat(generator.nextIv()).containsExactly(
+                0x0A, 0x0B, 0x0C, 0x0D, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08);
+        assertThat(generator.nextIv()).containsExactly(
+                0x0A, 0x0B, 0x0C, 0x0D, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x09);
+    }
+
+    @Test
+    void counterWrapsAroundWithoutTouchingTheFixedField() {
+        IvGenerator generator = new IvGenerator();
+        ReflectionTestUtils.setField(generator, "fixedField", -1);
+        ReflectionTestUtils.setField(generator, "counter", new AtomicLong(-1L));
+
+        byte[] last = generator.nextIv();
+        byte[] wrapped = generator.nextIv();
+
+        assertThat(Arrays.copyOf(last, 4)).isEqualTo(Arrays.copyOf(wrapped, 4));
+        assertThat(counter(last)).isEqualTo(-1L);
+        assertThat(counter(wrapped)).isZero();
+    }
+
+    @Test
+    void writesIvAtOffsetWithoutTouchingSurroundingBytes() {
+        IvGenerator generator = new IvGenerator();
+        byte[] buffer = new byte[IvGenerator.IV_LENGTH + 6];
+        Arrays.fill(buffer, (byte) 0x55);
+
+        generator.nextIv(buffer, 3);
+
+        assertThat(Arrays.copyOfRange(buffer, 0, 3)).containsOnly(0x55);
+        assertThat(Arrays.copyOfRange(buffer, 3 + IvGenerator.IV_LENGTH, buffer.length)).containsOnly(0x55);
+        assertThat(counter(Arrays.copyOfRange(buffer, 3, 3 + IvGenerator.IV_LENGTH)) + 1)
+                .isEqualTo(counter(generator.nextIv()));
+    }
+
+    @Test
+    void generatesIvsWithoutPerCallRandomness() {
+        IvGenerator generator = new IvGenerator();
+        byte[] iv = new byte[IvGenerator.IV_LENGTH];
+        int count = 1_000_000;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            generator.nextIv(iv, 0);
+        }
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // Borne large pour rester stable sur une machine chargée : sans aléa par appel, un million d'IV
+        // se génèrent en quelques dizaines de millisecondes
+        assertThat(elapsedMs).isLessThan(2_000);
+    }
+
+    private static long counter(byte[] iv) {
+        return ByteBuffer.wrap(iv, 4, 8).getLong();
+    }
+}